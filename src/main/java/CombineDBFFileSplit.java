@@ -0,0 +1,88 @@
+/**
+ * @file	CombineDBFFileSplit.java
+ */
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.InputSplit;
+
+/**
+ * CombineDBFFileSplit is a list of DBFFileSplit read one after the other by
+ * a single task, each with the index of its file among the input files of
+ * the job.
+ */
+public class CombineDBFFileSplit implements InputSplit {
+
+    private DBFFileSplit[] m_splits;
+    private int[] m_fileIndexes;
+    private String[] m_hosts;
+
+    CombineDBFFileSplit() {
+    }
+
+    public CombineDBFFileSplit(final DBFFileSplit[] splits, final int[] fileIndexes, final String[] hosts) {
+        m_splits = splits;
+        m_fileIndexes = fileIndexes;
+        m_hosts = hosts;
+    }
+
+    public int getNumSplits() {
+        return m_splits.length;
+    }
+
+    public DBFFileSplit getSplit(final int i) {
+        return m_splits[i];
+    }
+
+    public int getFileIndex(final int i) {
+        return m_fileIndexes[i];
+    }
+
+    @Override
+    public long getLength() {
+        long length = 0;
+        for (final DBFFileSplit split : m_splits) {
+            length += split.getLength();
+        }
+        return length;
+    }
+
+    @Override
+    public String[] getLocations() throws IOException {
+        if (m_hosts == null)
+            return new String[0];
+        else
+            return m_hosts;
+    }
+
+    public String toString() {
+        return (new StringBuilder()).append(Arrays.toString(m_splits)).append(" on ").append(Arrays.toString(m_hosts)).toString();
+    }
+
+    @Override
+    public void write(final DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, m_splits.length);
+        for (int i = 0; i < m_splits.length; i++) {
+            WritableUtils.writeVInt(out, m_fileIndexes[i]);
+            m_splits[i].write(out);
+        }
+    }
+
+    @Override
+    public void readFields(final DataInput in) throws IOException {
+        final int n = WritableUtils.readVInt(in);
+        m_splits = new DBFFileSplit[n];
+        m_fileIndexes = new int[n];
+        m_hosts = null;
+        for (int i = 0; i < n; i++) {
+            m_fileIndexes[i] = WritableUtils.readVInt(in);
+            m_splits[i] = new DBFFileSplit();
+            m_splits[i].readFields(in);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * @file	CombineDBFInputFormat.java
+ */
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * CombineDBFInputFormat packs the splits of many small DBF files into
+ * fewer CombineDBFFileSplit, up to MAX_BYTES each. The splits are planned by
+ * DBFInputFormat and all its properties apply. <BR><BR>
+ *
+ * Splits are first grouped by node, a group left over on a node with less
+ * than MIN_NODE_BYTES is then grouped by rack, and a group left over on a
+ * rack with less than MIN_RACK_BYTES is packed with the remaining splits
+ * without locality. <BR><BR>
+ *
+ * CombineDBFInputFormat.setSplitBytes(myJob,[maxBytes],[minNodeBytes],[minRackBytes]);<BR><BR>
+ *
+ * The files of a split may have different headers. The key of a record is
+ * the index of its file among the input files of the job in the high 32
+ * bits and its record number in the low 32 bits. <BR><BR>
+ *
+ * This InputFormat returns a CombineDBFRecordReader. <BR><BR>
+ *
+ * @see    DBFInputFormat
+ * @see    CombineDBFRecordReader
+ */
+public class CombineDBFInputFormat extends FileInputFormat<LongWritable, MapWritable> {
+
+    public static final String MAX_BYTES = "mapreduce.input.CombineDBFInputFormat.maxbytes";
+    public static final String MIN_NODE_BYTES = "mapreduce.input.CombineDBFInputFormat.minbytes.node";
+    public static final String MIN_RACK_BYTES = "mapreduce.input.CombineDBFInputFormat.minbytes.rack";
+
+    private static final long DEFAULT_MAX_BYTES = 128L * 1024 * 1024;
+    private static final int MAX_HOSTS = 3; // Hosts of a split packed without locality
+
+    private final DBFInputFormat m_dbfInputFormat = new DBFInputFormat();
+
+    @Override
+    public InputSplit[] getSplits(final JobConf job, final int numSplits) throws IOException {
+        final InputSplit[] planned = m_dbfInputFormat.getSplits(job, numSplits);
+        final Map<String, String> hostRacks = m_dbfInputFormat.getHostRacks();
+        final long maxBytes = job.getLong(MAX_BYTES, DEFAULT_MAX_BYTES);
+        final long minNodeBytes = job.getLong(MIN_NODE_BYTES, maxBytes / 2);
+        final long minRackBytes = job.getLong(MIN_RACK_BYTES, 0);
+
+        // Index the planned splits by file, node and rack
+        final int n = planned.length;
+        final DBFFileSplit[] splits = new DBFFileSplit[n];
+        final int[] fileIndexes = new int[n];
+        final Map<String, Integer> files = new HashMap<String, Integer>();
+        final Map<String, List<Integer>> nodeSplits = new LinkedHashMap<String, List<Integer>>();
+        final Map<String, List<Integer>> rackSplits = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < n; i++) {
+            splits[i] = (DBFFileSplit) planned[i];
+            final String file = splits[i].getPath().toString();
+            Integer fileIndex = files.get(file);
+            if (fileIndex == null) {
+                fileIndex = files.size();
+                files.put(file, fileIndex);
+            }
+            fileIndexes[i] = fileIndex;
+            for (final String host : splits[i].getLocations()) {
+                addSplit(nodeSplits, host, i);
+                final String rack = hostRacks.get(host);
+                if (rack != null) {
+                    addSplit(rackSplits, rack, i);
+                }
+            }
+        }
+
+        final Packer packer = new Packer(splits, fileIndexes, maxBytes);
+        for (final Map.Entry<String, List<Integer>> entry : nodeSplits.entrySet()) {
+            packer.pack(entry.getValue(), minNodeBytes, new String[] { entry.getKey() }, null);
+        }
+        for (final Map.Entry<String, List<Integer>> entry : rackSplits.entrySet()) {
+            packer.pack(entry.getValue(), minRackBytes, null, new RackHosts(hostRacks, entry.getKey()));
+        }
+        final List<Integer> all = new ArrayList<Integer>(n);
+        for (int i = 0; i < n; i++) {
+            all.add(i);
+        }
+        packer.pack(all, 0, null, null);
+
+        return packer.m_combined.toArray(new CombineDBFFileSplit[packer.m_combined.size()]);
+    }
+
+    private static void addSplit(final Map<String, List<Integer>> map, final String key, final int i) {
+        List<Integer> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Integer>();
+            map.put(key, list);
+        }
+        // A split is listed once per rack even when several of its hosts are in it
+        if (list.isEmpty() || list.get(list.size() - 1) != i) {
+            list.add(i);
+        }
+    }
+
+    /**
+     * Selects the hosts of one rack.
+     */
+    private static class RackHosts {
+        private final Map<String, String> m_hostRacks;
+        private final String m_rack;
+
+        RackHosts(final Map<String, String> hostRacks, final String rack) {
+            m_hostRacks = hostRacks;
+            m_rack = rack;
+        }
+
+        boolean contains(final String host) {
+            return m_rack.equals(m_hostRacks.get(host));
+        }
+    }
+
+    /**
+     * Packs the splits not yet assigned into combined splits.
+     */
+    private static class Packer {
+        private final DBFFileSplit[] m_splits;
+        private final int[] m_fileIndexes;
+        private final long m_maxBytes;
+        private final boolean[] m_assigned;
+        private final List<CombineDBFFileSplit> m_combined = new ArrayList<CombineDBFFileSplit>();
+
+        Packer(final DBFFileSplit[] splits, final int[] fileIndexes, final long maxBytes) {
+            m_splits = splits;
+            m_fileIndexes = fileIndexes;
+            m_maxBytes = maxBytes;
+            m_assigned = new boolean[splits.length];
+        }
+
+        /**
+         * Pack the candidate splits in groups of up to m_maxBytes, the last
+         * group being released if smaller than minBytes. Groups are located
+         * on the given hosts, or else on their hosts holding the most bytes,
+         * restricted to a rack if any.
+         */
+        void pack(final List<Integer> candidates, final long minBytes, final String[] hosts, final RackHosts rack) throws IOException {
+            List<Integer> group = new ArrayList<Integer>();
+            long size = 0;
+            for (final int i : candidates) {
+                if (m_assigned[i]) {
+                    continue;
+                }
+                m_assigned[i] = true;
+                group.add(i);
+                size += m_splits[i].getLength();
+                if (size >= m_maxBytes) {
+                    add(group, hosts, rack);
+                    group = new ArrayList<Integer>();
+                    size = 0;
+                }
+            }
+            if (group.isEmpty()) {
+                return;
+            }
+            if (size >= minBytes) {
+                add(group, hosts, rack);
+            }
+            else {
+                for (final int i : group) {
+                    m_assigned[i] = false;
+                }
+            }
+        }
+
+        private void add(final List<Integer> group, final String[] hosts, final RackHosts rack) throws IOException {
+            final DBFFileSplit[] splits = new DBFFileSplit[group.size()];
+            final int[] fileIndexes = new int[group.size()];
+            for (int i = 0; i < splits.length; i++) {
+                splits[i] = m_splits[group.get(i)];
+                fileIndexes[i] = m_fileIndexes[group.get(i)];
+            }
+            m_combined.add(new CombineDBFFileSplit(splits, fileIndexes, hosts != null ? hosts : topHosts(splits, rack)));
+        }
+
+        private String[] topHosts(final DBFFileSplit[] splits, final RackHosts rack) throws IOException {
+            final Map<String, Long> hostBytes = new HashMap<String, Long>();
+            for (final DBFFileSplit split : splits) {
+                for (final String host : split.getLocations()) {
+                    if (rack == null || rack.contains(host)) {
+                        final Long bytes = hostBytes.get(host);
+                        hostBytes.put(host, (bytes == null ? 0 : bytes) + split.getLength());
+                    }
+                }
+            }
+            final List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(hostBytes.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+                @Override
+                public int compare(final Map.Entry<String, Long> a, final Map.Entry<String, Long> b) {
+                    return b.getValue().compareTo(a.getValue());
+                }
+            });
+            final int count = rack == null ? Math.min(MAX_HOSTS, entries.size()) : entries.size();
+            final String[] hosts = new String[count];
+            for (int i = 0; i < count; i++) {
+                hosts[i] = entries.get(i).getKey();
+            }
+            return hosts;
+        }
+    }
+
+    @Override
+    public RecordReader<LongWritable, MapWritable> getRecordReader(final InputSplit inputSplit, final JobConf jobConf, final Reporter reporter) throws IOException {
+        return new CombineDBFRecordReader(inputSplit, jobConf, reporter);
+    }
+
+    /**
+     * Set the size of the combined splits
+     * @param job the job to modify
+     * @param maxBytes the maximum size of a split
+     * @param minNodeBytes the minimum size of a split local to a node
+     * @param minRackBytes the minimum size of a split local to a rack
+     */
+    public static void setSplitBytes(JobConf job, long maxBytes, long minNodeBytes, long minRackBytes) {
+        job.setLong(MAX_BYTES, maxBytes);
+        job.setLong(MIN_NODE_BYTES, minNodeBytes);
+        job.setLong(MIN_RACK_BYTES, minRackBytes);
+    }
+
+}
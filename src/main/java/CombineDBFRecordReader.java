@@ -0,0 +1,99 @@
+/**
+ * @file	CombineDBFRecordReader.java
+ */
+
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * CombineDBFRecordReader reads the DBFFileSplit of a CombineDBFFileSplit one
+ * after the other with a DBFRecordReader, switching file and header when a
+ * split ends. The value is cleared on each switch as the next file may have
+ * other fields. <BR><BR>
+ *
+ * The key of a record is the index of its file in the high 32 bits and its
+ * record number in the low 32 bits. The file being read is set as
+ * map.input.file in the JobConf.
+ */
+public class CombineDBFRecordReader implements RecordReader<LongWritable, MapWritable> {
+    private final CombineDBFFileSplit m_split;
+    private final JobConf m_jobConf;
+    private final Reporter m_reporter;
+    private final long m_length;
+    private DBFRecordReader m_reader;
+    private int m_index; // Index of the split being read
+    private long m_done; // Bytes of the splits already read
+
+    public CombineDBFRecordReader(final InputSplit inputSplit, final JobConf jobConf, final Reporter reporter) throws IOException {
+        m_split = (CombineDBFFileSplit) inputSplit;
+        m_jobConf = jobConf;
+        m_reporter = reporter;
+        m_length = m_split.getLength();
+    }
+
+    @Override
+    public LongWritable createKey() {
+        return new LongWritable();
+    }
+
+    @Override
+    public MapWritable createValue() {
+        return new MapWritable();
+    }
+
+    @Override
+    public boolean next(final LongWritable key, final MapWritable value) throws IOException {
+        while (true) {
+            if (m_reader == null) {
+                if (m_index >= m_split.getNumSplits()) {
+                    return false;
+                }
+                final DBFFileSplit split = m_split.getSplit(m_index);
+                m_jobConf.set("map.input.file", split.getPath().toString());
+                m_jobConf.setLong("map.input.start", split.getStart());
+                m_jobConf.setLong("map.input.length", split.getLength());
+                m_reader = new DBFRecordReader(split, m_jobConf, m_reporter);
+                value.clear();
+            }
+            if (m_reader.next(key, value)) {
+                key.set(((long) m_split.getFileIndex(m_index) << 32) | key.get());
+                return true;
+            }
+            m_reader.close();
+            m_reader = null;
+            m_done += m_split.getSplit(m_index).getLength();
+            m_index++;
+        }
+    }
+
+    @Override
+    public long getPos() throws IOException {
+        if (m_reader == null) {
+            return m_done;
+        }
+        return m_done + m_reader.getPos() - m_split.getSplit(m_index).getStart();
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+        if (m_length == 0) {
+            return 0.0f;
+        }
+        return Math.min(1.0f, getPos() / (float) m_length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (m_reader != null) {
+            m_reader.close();
+            m_reader = null;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/**
+ * @file	DBFBatch.java
+ */
+
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * DBFBatch holds consecutive records of a DBF file decoded into one
+ * primitive column vector per field read, with a selection vector of the
+ * rows which are neither deleted nor rejected by the filter. Only the
+ * selected rows are decoded, the values of the other rows are undefined.
+ * <BR><BR>
+ *
+ * Columns are typed like the slots of DBFRecordWritable: INT columns are
+ * int[], LONG columns long[], DOUBLE columns double[], BOOLEAN columns
+ * boolean[], and TEXT columns hold the UTF-8 bytes of row i in
+ * getBytes(c) from getOffsets(c)[i] to getOffsets(c)[i + 1]. D columns
+ * have a null vector for blank or invalid dates, and M columns, TEXT
+ * columns read from the memo file, for empty memos or memos without a memo
+ * file. <BR><BR>
+ *
+ * A typical loop is <BR><BR>
+ *
+ * final int[] selected = batch.getSelected();<BR>
+ * final double[] values = batch.getDoubles(c);<BR>
+ * for (int k = 0; k &lt; batch.getSelectedCount(); k++) {<BR>
+ * &nbsp;&nbsp;&nbsp;&nbsp;sum += values[selected[k]];<BR>
+ * }<BR>
+ *
+ * @see    DBFBatchReader
+ */
+public class DBFBatch {
+    private final DBFField[] m_fields;
+    private final byte[] m_types;
+    private final String[] m_names;
+    private final Map<String, Integer> m_indexes;
+    private final int m_capacity;
+    private final int m_recordLength;
+    final byte[] m_records; // Raw records of the batch, deleted flags included
+
+    private int m_size; // Rows in the batch
+    private long m_firstRecno;
+    private final int[] m_selected;
+    private int m_selectedCount;
+
+    private final int[][] m_ints;
+    private final long[][] m_longs;
+    private final double[][] m_doubles;
+    private final boolean[][] m_booleans;
+    private final boolean[][] m_nulls;
+    private final int[][] m_offsets;
+    private final byte[][] m_bytes;
+    private final Text m_text = new Text();
+
+    /**
+     * Create a batch of up to capacity records, column i holding field
+     * fieldIndexes[i] of the header.
+     */
+    public DBFBatch(final DBFHeader header, final int[] fieldIndexes, final int capacity) {
+        final int n = fieldIndexes.length;
+        m_capacity = capacity;
+        m_recordLength = header.recordLength;
+        m_records = new byte[capacity * m_recordLength];
+        m_selected = new int[capacity];
+        m_fields = new DBFField[n];
+        m_types = new byte[n];
+        m_names = new String[n];
+        m_indexes = new HashMap<String, Integer>(n * 2);
+        m_ints = new int[n][];
+        m_longs = new long[n][];
+        m_doubles = new double[n][];
+        m_booleans = new boolean[n][];
+        m_nulls = new boolean[n][];
+        m_offsets = new int[n][];
+        m_bytes = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            final DBFField field = header.getField(fieldIndexes[i]);
+            m_fields[i] = field;
+            m_names[i] = field.fieldName;
+            m_indexes.put(field.fieldName.toUpperCase(), i);
+            m_types[i] = DBFRecordWritable.typeOf(field);
+            switch (m_types[i]) {
+                case DBFRecordWritable.INT:
+                    m_ints[i] = new int[capacity];
+                    break;
+                case DBFRecordWritable.LONG:
+                    m_longs[i] = new long[capacity];
+                    break;
+                case DBFRecordWritable.DOUBLE:
+                    m_doubles[i] = new double[capacity];
+                    break;
+                case DBFRecordWritable.BOOLEAN:
+                    m_booleans[i] = new boolean[capacity];
+                    break;
+                case DBFRecordWritable.TEXT:
+                    m_offsets[i] = new int[capacity + 1];
+                    m_bytes[i] = new byte[capacity * Math.max(1, field.fieldLength)];
+                    break;
+                default:
+                    break;
+            }
+            if (field.dataType == 'D' || field.dataType == 'M') {
+                m_nulls[i] = new boolean[capacity];
+            }
+        }
+    }
+
+    /**
+     * Select the rows of the size records loaded in m_records which are
+     * not deleted and accepted by the filter, then decode them.
+     */
+    void load(final long firstRecno, final int size, final DBFFilter filter) throws IOException {
+        m_firstRecno = firstRecno;
+        m_size = size;
+        int count = 0;
+        for (int row = 0, from = 0; row < size; row++, from += m_recordLength) {
+            if (m_records[from] != DBFType.DELETED && (filter == null || filter.accept(m_records, from))) {
+                m_selected[count++] = row;
+            }
+        }
+        m_selectedCount = count;
+        for (int c = 0; c < m_fields.length; c++) {
+            decodeColumn(c);
+        }
+    }
+
+    private void decodeColumn(final int c) throws IOException {
+        final DBFField field = m_fields[c];
+        final byte[] records = m_records;
+        final int[] selected = m_selected;
+        final int count = m_selectedCount;
+        final int recordLength = m_recordLength;
+        final int offset = field.offset;
+        if (field.dataType == 'D') {
+            final boolean[] nulls = m_nulls[c];
+            final int[] ints = m_ints[c];
+            final long[] longs = m_longs[c];
+            for (int k = 0; k < count; k++) {
+                final int row = selected[k];
+                final int epochDay = field.readEpochDay(records, row * recordLength + offset);
+                nulls[row] = epochDay == DBFField.INVALID_DATE;
+                if (ints != null) {
+                    ints[row] = epochDay;
+                }
+                else {
+                    longs[row] = epochDay * DBFField.MILLIS_PER_DAY;
+                }
+            }
+            return;
+        }
+        switch (m_types[c]) {
+            case DBFRecordWritable.INT: {
+                final int[] values = m_ints[c];
+                for (int k = 0; k < count; k++) {
+                    final int row = selected[k];
+                    values[row] = field.readInteger(records, row * recordLength + offset);
+                }
+                break;
+            }
+            case DBFRecordWritable.LONG: {
+                final long[] values = m_longs[c];
+                for (int k = 0; k < count; k++) {
+                    final int row = selected[k];
+                    values[row] = field.readLong(records, row * recordLength + offset);
+                }
+                break;
+            }
+            case DBFRecordWritable.DOUBLE: {
+                final double[] values = m_doubles[c];
+                for (int k = 0; k < count; k++) {
+                    final int row = selected[k];
+                    values[row] = field.readDouble(records, row * recordLength + offset);
+                }
+                break;
+            }
+            case DBFRecordWritable.BOOLEAN: {
+                final boolean[] values = m_booleans[c];
+                for (int k = 0; k < count; k++) {
+                    final int row = selected[k];
+                    values[row] = field.readLogical(records, row * recordLength + offset);
+                }
+                break;
+            }
+            case DBFRecordWritable.TEXT: {
+                final int[] offsets = m_offsets[c];
+                final boolean[] nulls = m_nulls[c]; // M columns only
+                byte[] bytes = m_bytes[c];
+                int length = 0;
+                int row = 0;
+                for (int k = 0; k < count; k++) {
+                    final int selectedRow = selected[k];
+                    while (row <= selectedRow) {
+                        offsets[row++] = length; // Rows not selected are empty
+                    }
+                    if (nulls == null) {
+                        field.readText(records, selectedRow * recordLength + offset, m_text);
+                    }
+                    else {
+                        nulls[selectedRow] = !field.readMemo(records, selectedRow * recordLength + offset, m_text);
+                        if (nulls[selectedRow]) {
+                            m_text.clear();
+                        }
+                    }
+                    final int n = m_text.getLength();
+                    if (length + n > bytes.length) {
+                        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + n));
+                        m_bytes[c] = bytes;
+                    }
+                    System.arraycopy(m_text.getBytes(), 0, bytes, length, n);
+                    length += n;
+                }
+                while (row <= m_size) {
+                    offsets[row++] = length;
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    public int getCapacity() {
+        return m_capacity;
+    }
+
+    /**
+     * Return the number of rows in the batch, selected or not.
+     */
+    public int getSize() {
+        return m_size;
+    }
+
+    public int getSelectedCount() {
+        return m_selectedCount;
+    }
+
+    /**
+     * Return the rows selected, in increasing order, valid up to
+     * getSelectedCount().
+     */
+    public int[] getSelected() {
+        return m_selected;
+    }
+
+    /**
+     * Return the record number of a row, counted from 0 at the first record
+     * of the file.
+     */
+    public long getRecordNumber(final int row) {
+        return m_firstRecno + row;
+    }
+
+    public int getColumnCount() {
+        return m_fields.length;
+    }
+
+    /**
+     * Return the column of the named field, ignoring case, or -1.
+     */
+    public int getIndex(final String fieldName) {
+        final Integer index = m_indexes.get(fieldName.toUpperCase());
+        return index == null ? -1 : index;
+    }
+
+    public String getName(final int c) {
+        return m_names[c];
+    }
+
+    public byte getType(final int c) {
+        return m_types[c];
+    }
+
+    public int[] getInts(final int c) {
+        return m_ints[c];
+    }
+
+    public long[] getLongs(final int c) {
+        return m_longs[c];
+    }
+
+    public double[] getDoubles(final int c) {
+        return m_doubles[c];
+    }
+
+    public boolean[] getBooleans(final int c) {
+        return m_booleans[c];
+    }
+
+    /**
+     * Return the null vector of a D or M column, null for the other columns
+     * which are never null.
+     */
+    public boolean[] getNulls(final int c) {
+        return m_nulls[c];
+    }
+
+    public int[] getOffsets(final int c) {
+        return m_offsets[c];
+    }
+
+    public byte[] getBytes(final int c) {
+        return m_bytes[c];
+    }
+
+    public boolean isNull(final int c, final int row) {
+        return m_nulls[c] != null && m_nulls[c][row];
+    }
+
+    /**
+     * Set text to the value of a row of a TEXT column.
+     */
+    public void getText(final int c, final int row, final Text text) {
+        final int[] offsets = m_offsets[c];
+        text.set(m_bytes[c], offsets[row], offsets[row + 1] - offsets[row]);
+    }
+
+    @Override
+    public String toString() {
+        return "DBFBatch{firstRecno=" + m_firstRecno + ", size=" + m_size + ", selected=" + m_selectedCount + ", columns=" + Arrays.toString(m_names) + "}";
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * @file	DBFBatchInputFormat.java
+ */
+
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * DBFBatchInputFormat is the counterpart of DBFInputFormat handing out
+ * DBFBatch column vectors of up to BATCH_SIZE records instead of one
+ * MapWritable per record. Splits are planned by DBFInputFormat and all its
+ * properties apply. <BR><BR>
+ *
+ * DBFBatchInputFormat.setBatchSize(myJob,[batchSize]);<BR><BR>
+ *
+ * The key is the record number of the first row of the batch. <BR><BR>
+ *
+ * This InputFormat returns a DBFBatchRecordReader. <BR><BR>
+ *
+ * @see    DBFInputFormat
+ * @see    DBFBatch
+ */
+public class DBFBatchInputFormat extends FileInputFormat<LongWritable, DBFBatch> {
+
+    public static final String BATCH_SIZE = "mapreduce.input.DBFBatchInputFormat.batch.size";
+
+    private static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final DBFInputFormat m_dbfInputFormat = new DBFInputFormat();
+
+    @Override
+    public InputSplit[] getSplits(final JobConf job, final int numSplits) throws IOException {
+        return m_dbfInputFormat.getSplits(job, numSplits);
+    }
+
+    @Override
+    public RecordReader<LongWritable, DBFBatch> getRecordReader(final InputSplit inputSplit, final JobConf jobConf, final Reporter reporter) throws IOException {
+        return new DBFBatchRecordReader(inputSplit, jobConf, reporter);
+    }
+
+    static int getBatchSize(JobConf job) {
+        return Math.max(1, job.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE));
+    }
+
+    /**
+     * Set the number of records read in each batch
+     * @param job the job to modify
+     * @param batchSize the maximum number of rows of a batch
+     */
+    public static void setBatchSize(JobConf job, int batchSize) {
+        job.setInt(BATCH_SIZE, batchSize);
+    }
+
+}
@@ -0,0 +1,65 @@
+/**
+ * @file	DBFBatchReader.java
+ */
+
+
+import java.io.IOException;
+
+/**
+ * DBFBatchReader reads the records of a DBFReader into DBFBatch column
+ * vectors, many records at a time. <BR><BR>
+ *
+ * DBFBatchReader batchReader = new DBFBatchReader(new DBFReader(in, header));<BR>
+ * DBFBatch batch = batchReader.createBatch(1024, fieldIndexes);<BR>
+ * while (batchReader.next(batch)) {<BR>
+ * &nbsp;&nbsp;&nbsp;&nbsp;...<BR>
+ * }<BR>
+ *
+ * @see    DBFBatch
+ */
+public class DBFBatchReader {
+    private final DBFReader m_reader;
+    private DBFFilter m_filter;
+
+    public DBFBatchReader(final DBFReader reader) {
+        m_reader = reader;
+    }
+
+    /**
+     * Select only the records accepted by the filter, or all the records
+     * not deleted if it is null.
+     */
+    public void setFilter(final DBFFilter filter) {
+        m_filter = filter;
+    }
+
+    /**
+     * Create a batch of up to capacity records, column i holding field
+     * fieldIndexes[i].
+     */
+    public DBFBatch createBatch(final int capacity, final int[] fieldIndexes) {
+        return new DBFBatch(m_reader.getHeader(), fieldIndexes, capacity);
+    }
+
+    /**
+     * Load the next records having at least one selected row into the
+     * batch, returning false once the end is reached.
+     */
+    public boolean next(final DBFBatch batch) throws IOException {
+        int size;
+        while ((size = m_reader.readRecords(batch.m_records, batch.getCapacity())) > 0) {
+            batch.load(m_reader.getRecordNumber() - size + 1, size, m_filter);
+            if (batch.getSelectedCount() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the number of the record the stream is positioned on.
+     */
+    public long getNextRecordNumber() {
+        return m_reader.getNextRecordNumber();
+    }
+}
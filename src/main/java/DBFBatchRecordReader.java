@@ -0,0 +1,72 @@
+/**
+ * @file	DBFBatchRecordReader.java
+ */
+
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * DBFBatchRecordReader reads the records of a DBFFileSplit into DBFBatch
+ * column vectors. Positioning, projection and filtering are those of
+ * DBFRecordReader, but records are always decoded in the task thread,
+ * DBFInputFormat.DECODE_THREADS being ignored.
+ *
+ * @see    DBFRecordReader
+ */
+public class DBFBatchRecordReader implements RecordReader<LongWritable, DBFBatch> {
+    private final DBFRecordReader m_reader;
+    private final DBFBatchReader m_batchReader;
+    private final int m_batchSize;
+
+    public DBFBatchRecordReader(final InputSplit inputSplit, final JobConf jobConf, final Reporter reporter) throws IOException {
+        m_reader = new DBFRecordReader(inputSplit, jobConf, reporter);
+        m_batchReader = new DBFBatchReader(m_reader.getReader());
+        m_batchReader.setFilter(m_reader.getFilter());
+        m_batchSize = DBFBatchInputFormat.getBatchSize(jobConf);
+    }
+
+    @Override
+    public LongWritable createKey() {
+        return m_reader.createKey();
+    }
+
+    @Override
+    public DBFBatch createValue() {
+        return m_batchReader.createBatch(m_batchSize, m_reader.getFieldIndexes());
+    }
+
+    @Override
+    public long getPos() throws IOException {
+        return Math.min(m_reader.end, m_reader.getHeader().getHeadLength() + m_batchReader.getNextRecordNumber() * m_reader.getHeader().getRecordLength());
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+        if (m_reader.start == m_reader.end) {
+            return 0.0f;
+        }
+        else {
+            return Math.min(1.0f, (getPos() - m_reader.start) / (float) (m_reader.end - m_reader.start));
+        }
+    }
+
+    @Override
+    public boolean next(final LongWritable key, final DBFBatch value) throws IOException {
+        if (!m_batchReader.next(value)) {
+            return false;
+        }
+        key.set(value.getRecordNumber(0));
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_reader.close();
+    }
+}
@@ -0,0 +1,327 @@
+/**
+ * @file	DBFColumnStatistics.java
+ */
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * DBFColumnStatistics holds the number of values, the number of null
+ * values and the range of the other values of a field over a range of
+ * records, as used by DBFFilter.mayMatch() to skip the records which
+ * cannot match. <BR><BR>
+ *
+ * N fields without decimals and L fields (0 or 1) have a LONG range, D
+ * fields a LONG range of epoch days where a blank date is INVALID_DATE,
+ * lower than any date as DBFFilter compares them, and other invalid dates
+ * are counted as null, F fields and N fields with decimals a DOUBLE range,
+ * and C fields a BYTES range of their raw bytes trimmed like DBFFilter
+ * compares them.
+ *
+ * @see    DBFFilter
+ */
+public class DBFColumnStatistics implements Writable {
+    public static final byte NONE = 0;
+    public static final byte LONG = 1;
+    public static final byte DOUBLE = 2;
+    public static final byte BYTES = 3;
+
+    private byte m_kind;
+    private long m_count;
+    private long m_nullCount;
+    private long m_minLong;
+    private long m_maxLong;
+    private double m_minDouble;
+    private double m_maxDouble;
+    private byte[] m_minBytes;
+    private byte[] m_maxBytes;
+
+    public DBFColumnStatistics() {
+    }
+
+    public DBFColumnStatistics(final byte kind) {
+        reset(kind);
+    }
+
+    /**
+     * Return the kind of range kept for the given field.
+     */
+    public static byte kindOf(final DBFField field) {
+        switch (field.dataType) {
+            case 'C':
+                return BYTES;
+            case 'D':
+            case 'L':
+                return LONG;
+            case 'F':
+                return DOUBLE;
+            case 'N':
+                return field.decimalCount == 0 ? LONG : DOUBLE;
+            default:
+                return NONE;
+        }
+    }
+
+    public void reset(final byte kind) {
+        m_kind = kind;
+        m_count = 0;
+        m_nullCount = 0;
+        m_minLong = Long.MAX_VALUE;
+        m_maxLong = Long.MIN_VALUE;
+        m_minDouble = Double.POSITIVE_INFINITY;
+        m_maxDouble = Double.NEGATIVE_INFINITY;
+        m_minBytes = null;
+        m_maxBytes = null;
+    }
+
+    /**
+     * Add the value of the field in a record buffer.
+     */
+    public void add(final DBFField field, final byte[] bytes, final int from) throws IOException {
+        switch (field.dataType) {
+            case 'C':
+                addBytes(bytes, from, from + field.fieldLength);
+                break;
+            case 'D': {
+                final int epochDay = field.readEpochDay(bytes, from);
+                if (epochDay != DBFField.INVALID_DATE || field.isBlank(bytes, from)) {
+                    add(epochDay); // A blank date is INVALID_DATE, lower than any date
+                }
+                else {
+                    addNull();
+                }
+                break;
+            }
+            case 'L':
+                add(field.readLogical(bytes, from) ? 1 : 0);
+                break;
+            case 'F':
+                add(field.readDouble(bytes, from));
+                break;
+            case 'N':
+                if (field.decimalCount == 0) {
+                    add(field.readLong(bytes, from));
+                }
+                else {
+                    add(field.readDouble(bytes, from));
+                }
+                break;
+            default:
+                m_count++;
+                break;
+        }
+    }
+
+    public void addNull() {
+        m_count++;
+        m_nullCount++;
+    }
+
+    public void add(final long value) {
+        m_count++;
+        if (value < m_minLong) {
+            m_minLong = value;
+        }
+        if (value > m_maxLong) {
+            m_maxLong = value;
+        }
+    }
+
+    public void add(final double value) {
+        if (Double.isNaN(value)) {
+            addNull();
+            return;
+        }
+        m_count++;
+        if (value < m_minDouble) {
+            m_minDouble = value;
+        }
+        if (value > m_maxDouble) {
+            m_maxDouble = value;
+        }
+    }
+
+    /**
+     * Add the bytes from from to to, trimmed of blanks as DBFFilter trims
+     * them.
+     */
+    public void addBytes(final byte[] bytes, int from, int to) {
+        to = DBFField.trimTrailingBlanks(bytes, from, to);
+        from = DBFField.trimLeadingBlanks(bytes, from, to);
+        m_count++;
+        if (m_minBytes == null || compareBytes(bytes, from, to, m_minBytes) < 0) {
+            m_minBytes = Arrays.copyOfRange(bytes, from, to);
+        }
+        if (m_maxBytes == null || compareBytes(bytes, from, to, m_maxBytes) > 0) {
+            m_maxBytes = Arrays.copyOfRange(bytes, from, to);
+        }
+    }
+
+    /**
+     * Add the values of other statistics of the same kind.
+     */
+    public void merge(final DBFColumnStatistics other) {
+        m_count += other.m_count;
+        m_nullCount += other.m_nullCount;
+        m_minLong = Math.min(m_minLong, other.m_minLong);
+        m_maxLong = Math.max(m_maxLong, other.m_maxLong);
+        m_minDouble = Math.min(m_minDouble, other.m_minDouble);
+        m_maxDouble = Math.max(m_maxDouble, other.m_maxDouble);
+        if (other.m_minBytes != null && (m_minBytes == null || compareBytes(other.m_minBytes, 0, other.m_minBytes.length, m_minBytes) < 0)) {
+            m_minBytes = other.m_minBytes;
+        }
+        if (other.m_maxBytes != null && (m_maxBytes == null || compareBytes(other.m_maxBytes, 0, other.m_maxBytes.length, m_maxBytes) > 0)) {
+            m_maxBytes = other.m_maxBytes;
+        }
+    }
+
+    /**
+     * Compare bytes from from to to with value as unsigned bytes, a prefix
+     * being lower.
+     */
+    static int compareBytes(final byte[] bytes, final int from, final int to, final byte[] value) {
+        final int length = to - from;
+        final int n = Math.min(length, value.length);
+        for (int i = 0; i < n; i++) {
+            final int cmp = (bytes[from + i] & 0xFF) - (value[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - value.length;
+    }
+
+    public byte getKind() {
+        return m_kind;
+    }
+
+    /**
+     * Return the number of values, null values included.
+     */
+    public long getCount() {
+        return m_count;
+    }
+
+    public long getNullCount() {
+        return m_nullCount;
+    }
+
+    /**
+     * Return true if some values are not null, the range is undefined
+     * otherwise.
+     */
+    public boolean hasRange() {
+        return m_kind != NONE && m_count > m_nullCount;
+    }
+
+    public long getMinLong() {
+        return m_minLong;
+    }
+
+    public long getMaxLong() {
+        return m_maxLong;
+    }
+
+    /**
+     * Return the minimum as a double, for both LONG and DOUBLE ranges.
+     */
+    public double getMinDouble() {
+        return m_kind == LONG ? m_minLong : m_minDouble;
+    }
+
+    /**
+     * Return the maximum as a double, for both LONG and DOUBLE ranges.
+     */
+    public double getMaxDouble() {
+        return m_kind == LONG ? m_maxLong : m_maxDouble;
+    }
+
+    public byte[] getMinBytes() {
+        return m_minBytes;
+    }
+
+    public byte[] getMaxBytes() {
+        return m_maxBytes;
+    }
+
+    @Override
+    public void write(final DataOutput out) throws IOException {
+        out.writeByte(m_kind);
+        WritableUtils.writeVLong(out, m_count);
+        WritableUtils.writeVLong(out, m_nullCount);
+        if (!hasRange()) {
+            return;
+        }
+        switch (m_kind) {
+            case LONG:
+                WritableUtils.writeVLong(out, m_minLong);
+                WritableUtils.writeVLong(out, m_maxLong);
+                break;
+            case DOUBLE:
+                out.writeDouble(m_minDouble);
+                out.writeDouble(m_maxDouble);
+                break;
+            case BYTES:
+                WritableUtils.writeVInt(out, m_minBytes.length);
+                out.write(m_minBytes);
+                WritableUtils.writeVInt(out, m_maxBytes.length);
+                out.write(m_maxBytes);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void readFields(final DataInput in) throws IOException {
+        reset(in.readByte());
+        m_count = WritableUtils.readVLong(in);
+        m_nullCount = WritableUtils.readVLong(in);
+        if (!hasRange()) {
+            return;
+        }
+        switch (m_kind) {
+            case LONG:
+                m_minLong = WritableUtils.readVLong(in);
+                m_maxLong = WritableUtils.readVLong(in);
+                break;
+            case DOUBLE:
+                m_minDouble = in.readDouble();
+                m_maxDouble = in.readDouble();
+                break;
+            case BYTES:
+                m_minBytes = new byte[WritableUtils.readVInt(in)];
+                in.readFully(m_minBytes);
+                m_maxBytes = new byte[WritableUtils.readVInt(in)];
+                in.readFully(m_maxBytes);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("DBFColumnStatistics{count=").append(m_count).append(", nulls=").append(m_nullCount);
+        if (hasRange()) {
+            switch (m_kind) {
+                case LONG:
+                    sb.append(", min=").append(m_minLong).append(", max=").append(m_maxLong);
+                    break;
+                case DOUBLE:
+                    sb.append(", min=").append(m_minDouble).append(", max=").append(m_maxDouble);
+                    break;
+                default:
+                    sb.append(", min=").append(Arrays.toString(m_minBytes)).append(", max=").append(Arrays.toString(m_maxBytes));
+                    break;
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * @file	DBFColumnarConverter.java
+ */
+
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.NLineInputFormat;
+import org.apache.hadoop.mapred.lib.NullOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * DBFColumnarConverter is a map only job writing the columnar sidecar of
+ * each DBF file of its input paths, one file per map task. Files whose
+ * sidecar is current are skipped unless -force is given. <BR><BR>
+ *
+ * hadoop jar [jar] DBFColumnarConverter [-rowgroup records] [-force] path...<BR><BR>
+ *
+ * The charset of C fields is the one configured for DBFInputFormat.
+ *
+ * @see    DBFColumnarWriter
+ * @see    DBFColumnarInputFormat
+ */
+public class DBFColumnarConverter extends Configured implements Tool {
+
+    public static final String ROW_GROUP_RECORDS = "mapreduce.DBFColumnarConverter.rowgroup.records";
+
+    /**
+     * Convert the DBF file named by each line of the input.
+     */
+    public static class ConvertMapper extends MapReduceBase implements Mapper<LongWritable, Text, NullWritable, NullWritable> {
+        private JobConf m_job;
+
+        @Override
+        public void configure(final JobConf job) {
+            m_job = job;
+        }
+
+        @Override
+        public void map(final LongWritable key, final Text value, final OutputCollector<NullWritable, NullWritable> output, final Reporter reporter) throws IOException {
+            final Path path = new Path(value.toString());
+            final FileStatus file = path.getFileSystem(m_job).getFileStatus(path);
+            reporter.setStatus("Converting " + path);
+            DBFColumnarWriter.convert(m_job, file, m_job.getInt(ROW_GROUP_RECORDS, DBFColumnarWriter.DEFAULT_ROW_GROUP_RECORDS), reporter);
+        }
+    }
+
+    @Override
+    public int run(final String[] args) throws Exception {
+        final JobConf job = new JobConf(getConf(), DBFColumnarConverter.class);
+        boolean force = false;
+        final List<Path> inputs = new ArrayList<Path>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-rowgroup".equals(args[i]) && i + 1 < args.length) {
+                job.setInt(ROW_GROUP_RECORDS, Integer.parseInt(args[++i]));
+            }
+            else if ("-force".equals(args[i])) {
+                force = true;
+            }
+            else {
+                inputs.add(new Path(args[i]));
+            }
+        }
+        if (inputs.isEmpty()) {
+            System.err.println("Usage: DBFColumnarConverter [-rowgroup records] [-force] path...");
+            ToolRunner.printGenericCommandUsage(System.err);
+            return 2;
+        }
+
+        FileInputFormat.setInputPaths(job, inputs.toArray(new Path[inputs.size()]));
+        final List<FileStatus> files = new ArrayList<FileStatus>();
+        for (final FileStatus file : new DBFInputFormat().listStatus(job)) {
+            final FileSystem fs = file.getPath().getFileSystem(job);
+            if (file.getLen() > 0 && (force || DBFColumnarFile.open(fs, file) == null)) {
+                files.add(file);
+            }
+        }
+        if (files.isEmpty()) {
+            System.out.println("All the sidecars are current");
+            return 0;
+        }
+
+        job.setJobName("DBF columnar conversion of " + files.size() + " files");
+        job.setMapperClass(ConvertMapper.class);
+        return runFileJob(job, files) ? 0 : 1;
+    }
+
+    /**
+     * Run the mapper of the job on each file, one file per map task, the
+     * value of the mapper being the path of its file.
+     */
+    static boolean runFileJob(final JobConf job, final List<FileStatus> files) throws IOException {
+        final Path list = new Path(job.get("hadoop.tmp.dir", "/tmp"), "dbf-files-" + System.currentTimeMillis() + ".list");
+        final FileSystem fs = list.getFileSystem(job);
+        final Writer writer = new OutputStreamWriter(fs.create(list), "UTF-8");
+        try {
+            for (final FileStatus file : files) {
+                writer.write(file.getPath().toString());
+                writer.write('\n');
+            }
+        }
+        finally {
+            writer.close();
+        }
+
+        try {
+            job.setInputFormat(NLineInputFormat.class);
+            job.setInt("mapred.line.input.format.linespermap", 1);
+            FileInputFormat.setInputPaths(job, list);
+            job.setNumReduceTasks(0);
+            job.setMapSpeculativeExecution(false);
+            job.setOutputFormat(NullOutputFormat.class);
+            job.setOutputKeyClass(NullWritable.class);
+            job.setOutputValueClass(NullWritable.class);
+            return JobClient.runJob(job).isSuccessful();
+        }
+        finally {
+            fs.delete(list, false);
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        System.exit(ToolRunner.run(new DBFColumnarConverter(), args));
+    }
+}
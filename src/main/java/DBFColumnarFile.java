@@ -0,0 +1,248 @@
+/**
+ * @file	DBFColumnarFile.java
+ */
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * DBFColumnarFile is the metadata of a columnar sidecar of a DBF file,
+ * named after it with a .dbfc extension and written by DBFColumnarWriter.
+ * <BR><BR>
+ *
+ * A sidecar starts with the magic bytes DBFC, a version byte, the length
+ * and the modification time of the DBF file it was converted from, and the
+ * DBFHeader of the file. The records which are not deleted follow in row
+ * groups, each one holding the record numbers of its rows, then one column
+ * chunk per field. A footer lists the offset, the record numbers and the
+ * chunk lengths of each row group, with the DBFColumnStatistics of each
+ * chunk, and the file ends with the offset of the footer and the magic
+ * bytes again. <BR><BR>
+ *
+ * Chunks store INT, LONG and DOUBLE values as big endian binary numbers,
+ * D fields as int epoch days (INVALID_DATE for blank and invalid dates),
+ * L fields as one byte per row and C fields as UTF-8 text, either plain or
+ * through a dictionary of the distinct values of the chunk.
+ *
+ * @see    DBFColumnarWriter
+ * @see    DBFColumnarInputFormat
+ */
+public class DBFColumnarFile {
+    public static final String EXTENSION = ".dbfc";
+
+    static final byte[] MAGIC = { 'D', 'B', 'F', 'C' };
+    static final byte VERSION = 1;
+    static final int TRAILER_LENGTH = 8 + 4; // Footer offset and magic
+
+    // Encodings of TEXT chunks
+    static final byte PLAIN = 0;
+    static final byte DICTIONARY = 1;
+
+    /**
+     * Location and statistics of a row group.
+     */
+    public static class RowGroup {
+        long m_offset;
+        int m_rowCount;
+        long m_firstRecno;
+        int m_recnoLength; // Length of the record numbers, before the first chunk
+        long[] m_chunkOffsets;
+        int[] m_chunkLengths;
+        DBFColumnStatistics[] m_statistics;
+
+        public long getOffset() {
+            return m_offset;
+        }
+
+        public long getLength() {
+            long length = m_recnoLength;
+            for (final int chunkLength : m_chunkLengths) {
+                length += chunkLength;
+            }
+            return length;
+        }
+
+        public int getRowCount() {
+            return m_rowCount;
+        }
+
+        public long getFirstRecordNumber() {
+            return m_firstRecno;
+        }
+
+        /**
+         * Return the statistics of the chunk of each field, by field index.
+         */
+        public DBFColumnStatistics[] getStatistics() {
+            return m_statistics;
+        }
+
+        void computeChunkOffsets() {
+            m_chunkOffsets = new long[m_chunkLengths.length];
+            long offset = m_offset + m_recnoLength;
+            for (int i = 0; i < m_chunkLengths.length; i++) {
+                m_chunkOffsets[i] = offset;
+                offset += m_chunkLengths[i];
+            }
+        }
+    }
+
+    private final Path m_path;
+    private final DBFHeader m_header;
+    private final long m_sourceLength;
+    private final long m_sourceModificationTime;
+    private final List<RowGroup> m_rowGroups;
+
+    private DBFColumnarFile(final Path path, final DBFHeader header, final long sourceLength, final long sourceModificationTime, final List<RowGroup> rowGroups) {
+        m_path = path;
+        m_header = header;
+        m_sourceLength = sourceLength;
+        m_sourceModificationTime = sourceModificationTime;
+        m_rowGroups = rowGroups;
+    }
+
+    /**
+     * Return the path of the sidecar of a DBF file, its name with the .dbf
+     * extension replaced.
+     */
+    public static Path getSidecarPath(final Path dbfPath) {
+        final String name = dbfPath.getName();
+        final String base = name.toLowerCase().endsWith(".dbf") ? name.substring(0, name.length() - 4) : name;
+        return new Path(dbfPath.getParent(), base + EXTENSION);
+    }
+
+    /**
+     * Return the type of the chunks of a field, the slot type of
+     * DBFRecordWritable except for D fields which are always INT and M
+     * fields which are not stored.
+     */
+    static byte typeOf(final DBFField field) {
+        switch (field.dataType) {
+            case 'D':
+                return DBFRecordWritable.INT;
+            case 'M':
+                return DBFRecordWritable.NULL;
+            default:
+                return DBFRecordWritable.typeOf(field);
+        }
+    }
+
+    /**
+     * Read the metadata of the sidecar of a DBF file, or return null if it
+     * does not exist or was converted from another version of the file.
+     */
+    public static DBFColumnarFile open(final FileSystem fs, final FileStatus dbfFile) throws IOException {
+        final Path path = getSidecarPath(dbfFile.getPath());
+        if (!fs.exists(path)) {
+            return null;
+        }
+        final DBFColumnarFile file = read(fs, path);
+        return file.isCurrent(dbfFile) ? file : null;
+    }
+
+    /**
+     * Read the metadata of a sidecar.
+     */
+    public static DBFColumnarFile read(final FileSystem fs, final Path path) throws IOException {
+        final long length = fs.getFileStatus(path).getLen();
+        final FSDataInputStream in = fs.open(path);
+        try {
+            if (length < MAGIC.length + 1 + TRAILER_LENGTH) {
+                throw new IOException("Not a DBF columnar file: " + path);
+            }
+            checkMagic(in, path);
+            final byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of DBF columnar file " + path);
+            }
+            final long sourceLength = in.readLong();
+            final long sourceModificationTime = in.readLong();
+            final DBFHeader header = new DBFHeader();
+            header.readFields(in);
+
+            in.seek(length - TRAILER_LENGTH);
+            final long footerOffset = in.readLong();
+            checkMagic(in, path);
+
+            in.seek(footerOffset);
+            final int rowGroupCount = WritableUtils.readVInt(in);
+            final List<RowGroup> rowGroups = new ArrayList<RowGroup>(rowGroupCount);
+            for (int i = 0; i < rowGroupCount; i++) {
+                final RowGroup rowGroup = new RowGroup();
+                rowGroup.m_offset = WritableUtils.readVLong(in);
+                rowGroup.m_rowCount = WritableUtils.readVInt(in);
+                rowGroup.m_firstRecno = WritableUtils.readVLong(in);
+                rowGroup.m_recnoLength = WritableUtils.readVInt(in);
+                rowGroup.m_chunkLengths = new int[header.numberOfFields];
+                rowGroup.m_statistics = new DBFColumnStatistics[header.numberOfFields];
+                for (int j = 0; j < header.numberOfFields; j++) {
+                    rowGroup.m_chunkLengths[j] = WritableUtils.readVInt(in);
+                    rowGroup.m_statistics[j] = new DBFColumnStatistics();
+                    rowGroup.m_statistics[j].readFields(in);
+                }
+                rowGroup.computeChunkOffsets();
+                rowGroups.add(rowGroup);
+            }
+            return new DBFColumnarFile(path, header, sourceLength, sourceModificationTime, rowGroups);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static void checkMagic(final FSDataInputStream in, final Path path) throws IOException {
+        final byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a DBF columnar file: " + path);
+        }
+    }
+
+    /**
+     * Return true if the sidecar was converted from the given version of
+     * its DBF file, same length and modification time.
+     */
+    public boolean isCurrent(final FileStatus dbfFile) {
+        return m_sourceLength == dbfFile.getLen() && m_sourceModificationTime == dbfFile.getModificationTime();
+    }
+
+    public Path getPath() {
+        return m_path;
+    }
+
+    /**
+     * Return the header of the DBF file the sidecar was converted from.
+     */
+    public DBFHeader getHeader() {
+        return m_header;
+    }
+
+    public List<RowGroup> getRowGroups() {
+        return m_rowGroups;
+    }
+
+    /**
+     * Return the number of rows, the records of the DBF file not deleted.
+     */
+    public long getRowCount() {
+        long count = 0;
+        for (final RowGroup rowGroup : m_rowGroups) {
+            count += rowGroup.m_rowCount;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "DBFColumnarFile{path=" + m_path + ", rowGroups=" + m_rowGroups.size() + ", rows=" + getRowCount() + "}";
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * @file	DBFColumnarInputFormat.java
+ */
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * DBFColumnarInputFormat reads the DBF files of the input through their
+ * columnar sidecar when it is current, and like DBFInputFormat otherwise,
+ * so that a job reads the same records either way. <BR><BR>
+ *
+ * Sidecars are written by DBFColumnarConverter. Only the chunks of the
+ * projected fields and of the fields of the filter are read, and the row
+ * groups whose statistics cannot match the filter are pruned when
+ * planning the splits. Each split holds consecutive row groups up to the
+ * split target size, or the block size of the sidecar. <BR><BR>
+ *
+ * All the properties of DBFInputFormat apply, except that the charset and
+ * the dictionaries of C fields are those of the conversion, and that F
+ * fields are rounded to float from their double value. <BR><BR>
+ *
+ * This InputFormat returns a DBFColumnarRecordReader for the sidecars and
+ * a DBFRecordReader for the other files. <BR><BR>
+ *
+ * @see    DBFColumnarFile
+ * @see    DBFColumnarRecordReader
+ */
+public class DBFColumnarInputFormat extends DBFInputFormat {
+
+    // Sidecars of the files listed by the last call of listStatus()
+    private final List<DBFColumnarFile> m_sidecars = new ArrayList<DBFColumnarFile>();
+
+    /**
+     * List the DBF files without a current sidecar, keeping the sidecars of
+     * the others.
+     */
+    @Override
+    protected FileStatus[] listStatus(final JobConf job) throws IOException {
+        final FileStatus[] files = super.listStatus(job);
+        m_sidecars.clear();
+        final List<FileStatus> dbfFiles = new ArrayList<FileStatus>(files.length);
+        for (final FileStatus file : files) {
+            final DBFColumnarFile sidecar = file.getLen() == 0 ? null : DBFColumnarFile.open(file.getPath().getFileSystem(job), file);
+            if (sidecar != null) {
+                m_sidecars.add(sidecar);
+            }
+            else {
+                dbfFiles.add(file);
+            }
+        }
+        return dbfFiles.toArray(new FileStatus[dbfFiles.size()]);
+    }
+
+    @Override
+    public InputSplit[] getSplits(final JobConf job, final int numSplits) throws IOException {
+        final List<InputSplit> splits = new ArrayList<InputSplit>(Arrays.asList(super.getSplits(job, numSplits)));
+        job.setLong(NUM_INPUT_FILES, job.getLong(NUM_INPUT_FILES, 0) + m_sidecars.size());
+
+        final String filter = job.get(FILTER);
+        for (final DBFColumnarFile sidecar : m_sidecars) {
+            DBFFilter dbfFilter = null;
+            if (filter != null && filter.trim().length() > 0) {
+                final DBFHeader header = sidecar.getHeader();
+                DBFRecordReader.configureFields(header, job, new ArrayList<DBFField>());
+                dbfFilter = DBFFilter.compile(filter, header);
+            }
+            addSplits(splits, job, sidecar, dbfFilter);
+        }
+        LOG.debug("Total # of splits: " + splits.size());
+        return splits.toArray(new InputSplit[splits.size()]);
+    }
+
+    /**
+     * Add the splits of the row groups of a sidecar which may match the
+     * filter, consecutive row groups being grouped up to the split size.
+     */
+    private void addSplits(final List<InputSplit> splits, final JobConf job, final DBFColumnarFile sidecar, final DBFFilter filter) throws IOException {
+        final Path path = sidecar.getPath();
+        final FileSystem fs = path.getFileSystem(job);
+        final FileStatus status = fs.getFileStatus(path);
+        final BlockLocation[] blkLocations = fs.getFileBlockLocations(status, 0, status.getLen());
+        final long targetBytes = job.getLong(SPLIT_TARGET_BYTES, 0L);
+        final long splitBytes = targetBytes > 0 ? targetBytes : status.getBlockSize();
+
+        final List<DBFColumnarFile.RowGroup> rowGroups = sidecar.getRowGroups();
+        final List<Integer> indexes = new ArrayList<Integer>();
+        long start = 0;
+        long length = 0;
+        int pruned = 0;
+        for (int i = 0; i <= rowGroups.size(); i++) {
+            final DBFColumnarFile.RowGroup rowGroup = i < rowGroups.size() ? rowGroups.get(i) : null;
+            final boolean selected = rowGroup != null && (filter == null || filter.mayMatch(rowGroup.getStatistics()));
+            if (rowGroup != null && !selected) {
+                pruned++;
+            }
+            // Close the current split at a gap, at the end or once full
+            if (!indexes.isEmpty() && (!selected || rowGroup.getOffset() != start + length || length + rowGroup.getLength() > splitBytes)) {
+                splits.add(new DBFColumnarSplit(path, status.getModificationTime(), toArray(indexes), length, getHosts(blkLocations, start, length)));
+                indexes.clear();
+            }
+            if (selected) {
+                if (indexes.isEmpty()) {
+                    start = rowGroup.getOffset();
+                    length = 0;
+                }
+                indexes.add(i);
+                length += rowGroup.getLength();
+            }
+        }
+        if (pruned > 0) {
+            LOG.debug("Pruned " + pruned + " of " + rowGroups.size() + " row groups of " + path);
+        }
+    }
+
+    private static int[] toArray(final List<Integer> list) {
+        final int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Return the hosts of the block holding most of the bytes of a range.
+     */
+    private static String[] getHosts(final BlockLocation[] blkLocations, final long start, final long length) throws IOException {
+        String[] hosts = new String[0];
+        long best = 0;
+        for (final BlockLocation blkLocation : blkLocations) {
+            final long overlap = Math.min(start + length, blkLocation.getOffset() + blkLocation.getLength()) - Math.max(start, blkLocation.getOffset());
+            if (overlap > best) {
+                best = overlap;
+                hosts = blkLocation.getHosts();
+            }
+        }
+        return hosts;
+    }
+
+    @Override
+    public RecordReader<LongWritable, MapWritable> getRecordReader(final InputSplit inputSplit, final JobConf jobConf, final Reporter reporter) throws IOException {
+        if (inputSplit instanceof DBFColumnarSplit) {
+            return new DBFColumnarRecordReader((DBFColumnarSplit) inputSplit, jobConf);
+        }
+        return super.getRecordReader(inputSplit, jobConf, reporter);
+    }
+
+}
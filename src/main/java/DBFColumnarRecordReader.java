@@ -0,0 +1,368 @@
+/**
+ * @file	DBFColumnarRecordReader.java
+ */
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * DBFColumnarRecordReader reads the row groups of a DBFColumnarSplit, with
+ * the keys and values DBFRecordReader would read from the DBF file. Only
+ * the chunks of the projected fields and of the fields of the filter are
+ * read, and row groups whose statistics cannot match the filter are
+ * skipped. <BR><BR>
+ *
+ * The filter is evaluated on the fields it reads encoded again into a
+ * record buffer.
+ *
+ * @see    DBFColumnarInputFormat
+ */
+public class DBFColumnarRecordReader implements RecordReader<LongWritable, MapWritable> {
+
+    /**
+     * Decoded chunk of a field in the current row group.
+     */
+    private static class Column {
+        final DBFField m_field;
+        final byte m_type;
+        byte[] m_chunk = new byte[0];
+        int[] m_ints;
+        long[] m_longs;
+        double[] m_doubles;
+        int[] m_offsets; // TEXT value of each row, in m_chunk
+        int[] m_lengths;
+
+        Column(final DBFField field) {
+            m_field = field;
+            m_type = DBFColumnarFile.typeOf(field);
+        }
+    }
+
+    private final LongWritable m_key = new LongWritable();
+    private final MapWritable m_value = new MapWritable();
+    private final FSDataInputStream m_in;
+    private final DBFColumnarFile m_file;
+    private final DBFHeader m_header;
+    private final int[] m_rowGroups;
+    private final int[] m_fieldIndexes;
+    private final List<Text> m_keys;
+    private final Writable[] m_values; // Last instance of each projected slot
+    private final DBFFilter m_filter;
+    private final int[] m_filterIndexes;
+    private final Writable[] m_filterValues;
+    private final byte[] m_record;
+    private final Column[] m_columns; // By field index, null for fields not read
+    private final long m_totalRows;
+    private long[] m_recnos = new long[0];
+    private int m_rowGroup = -1; // Index in m_rowGroups
+    private int m_rowCount;
+    private int m_row;
+    private long m_rowsDone; // Rows of the row groups done or skipped
+
+    public DBFColumnarRecordReader(final DBFColumnarSplit split, final JobConf jobConf) throws IOException {
+        final Path path = split.getPath();
+        final FileSystem fs = path.getFileSystem(jobConf);
+        if (fs.getFileStatus(path).getModificationTime() != split.getModificationTime()) {
+            throw new IOException("The DBF columnar file " + path + " changed since the splits were planned");
+        }
+        m_file = DBFColumnarFile.read(fs, path);
+        m_header = m_file.getHeader();
+        DBFRecordReader.configureFields(m_header, jobConf, new ArrayList<DBFField>());
+        m_rowGroups = split.getRowGroups();
+
+        m_fieldIndexes = DBFRecordReader.resolveFieldIndexes(m_header, DBFInputFormat.getProjectedFields(jobConf));
+        m_keys = new ArrayList<Text>(m_fieldIndexes.length);
+        m_columns = new Column[m_header.numberOfFields];
+        for (final int index : m_fieldIndexes) {
+            m_keys.add(new Text(m_header.getField(index).fieldName));
+            m_columns[index] = new Column(m_header.getField(index));
+        }
+        m_values = new Writable[m_fieldIndexes.length];
+
+        final String filter = jobConf.get(DBFInputFormat.FILTER);
+        if (filter != null && filter.trim().length() > 0) {
+            m_filter = DBFFilter.compile(filter, m_header);
+            m_filterIndexes = m_filter.getFieldIndexes();
+            for (final int index : m_filterIndexes) {
+                if (m_columns[index] == null) {
+                    m_columns[index] = new Column(m_header.getField(index));
+                }
+            }
+        }
+        else {
+            m_filter = null;
+            m_filterIndexes = new int[0];
+        }
+        m_filterValues = new Writable[m_filterIndexes.length];
+        m_record = new byte[m_header.recordLength];
+        Arrays.fill(m_record, (byte) ' ');
+
+        long totalRows = 0;
+        for (final int rowGroup : m_rowGroups) {
+            totalRows += m_file.getRowGroups().get(rowGroup).getRowCount();
+        }
+        m_totalRows = totalRows;
+        m_in = fs.open(path);
+    }
+
+    @Override
+    public LongWritable createKey() {
+        return m_key;
+    }
+
+    @Override
+    public MapWritable createValue() {
+        return m_value;
+    }
+
+    @Override
+    public long getPos() throws IOException {
+        return m_rowsDone - m_rowCount + m_row;
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+        if (m_totalRows == 0) {
+            return 0.0f;
+        }
+        return Math.min(1.0f, getPos() / (float) m_totalRows);
+    }
+
+    @Override
+    public boolean next(final LongWritable key, final MapWritable value) throws IOException {
+        while (true) {
+            if (m_row >= m_rowCount) {
+                if (!nextRowGroup()) {
+                    return false;
+                }
+                continue;
+            }
+            final int row = m_row++;
+            if (m_filter != null && !accept(row)) {
+                continue;
+            }
+            key.set(m_recnos[row]);
+            for (int i = 0; i < m_fieldIndexes.length; i++) {
+                final Writable writable = toWritable(m_columns[m_fieldIndexes[i]], row, m_values[i], false);
+                if (writable != NullWritable.get()) {
+                    m_values[i] = writable;
+                }
+                value.put(m_keys.get(i), writable);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Evaluate the filter on the fields it reads, encoded again.
+     */
+    private boolean accept(final int row) throws IOException {
+        for (int k = 0; k < m_filterIndexes.length; k++) {
+            final Column column = m_columns[m_filterIndexes[k]];
+            final Writable writable = toWritable(column, row, m_filterValues[k], true);
+            if (writable != NullWritable.get()) {
+                m_filterValues[k] = writable;
+            }
+            column.m_field.writeWritable(writable, m_record, column.m_field.offset);
+        }
+        return m_filter.accept(m_record);
+    }
+
+    /**
+     * Load the next row group which may match the filter, returning false
+     * at the end of the split.
+     */
+    private boolean nextRowGroup() throws IOException {
+        while (++m_rowGroup < m_rowGroups.length) {
+            final DBFColumnarFile.RowGroup rowGroup = m_file.getRowGroups().get(m_rowGroups[m_rowGroup]);
+            m_rowsDone += rowGroup.getRowCount();
+            m_row = 0;
+            m_rowCount = 0;
+            if (m_filter != null && !m_filter.mayMatch(rowGroup.getStatistics())) {
+                continue;
+            }
+            load(rowGroup);
+            return true;
+        }
+        m_row = 0;
+        m_rowCount = 0;
+        return false;
+    }
+
+    private void load(final DBFColumnarFile.RowGroup rowGroup) throws IOException {
+        final int n = rowGroup.m_rowCount;
+        final byte[] recnos = new byte[rowGroup.m_recnoLength];
+        m_in.seek(rowGroup.m_offset);
+        m_in.readFully(recnos);
+        if (m_recnos.length < n) {
+            m_recnos = new long[n];
+        }
+        long recno = rowGroup.m_firstRecno;
+        for (int row = 0, pos = 0; row < n; row++) {
+            recno += WritableComparator.readVLong(recnos, pos);
+            pos += WritableUtils.decodeVIntSize(recnos[pos]);
+            m_recnos[row] = recno;
+        }
+        for (int i = 0; i < m_columns.length; i++) {
+            if (m_columns[i] != null) {
+                loadColumn(m_columns[i], rowGroup.m_chunkOffsets[i], rowGroup.m_chunkLengths[i], n);
+            }
+        }
+        m_rowCount = n;
+    }
+
+    private void loadColumn(final Column column, final long offset, final int length, final int n) throws IOException {
+        if (column.m_chunk.length < length) {
+            column.m_chunk = new byte[length];
+        }
+        final byte[] chunk = column.m_chunk;
+        m_in.seek(offset);
+        m_in.readFully(chunk, 0, length);
+        switch (column.m_type) {
+            case DBFRecordWritable.INT:
+                if (column.m_ints == null || column.m_ints.length < n) {
+                    column.m_ints = new int[n];
+                }
+                for (int row = 0; row < n; row++) {
+                    column.m_ints[row] = WritableComparator.readInt(chunk, row << 2);
+                }
+                break;
+            case DBFRecordWritable.LONG:
+                if (column.m_longs == null || column.m_longs.length < n) {
+                    column.m_longs = new long[n];
+                }
+                for (int row = 0; row < n; row++) {
+                    column.m_longs[row] = WritableComparator.readLong(chunk, row << 3);
+                }
+                break;
+            case DBFRecordWritable.DOUBLE:
+                if (column.m_doubles == null || column.m_doubles.length < n) {
+                    column.m_doubles = new double[n];
+                }
+                for (int row = 0; row < n; row++) {
+                    column.m_doubles[row] = WritableComparator.readDouble(chunk, row << 3);
+                }
+                break;
+            case DBFRecordWritable.TEXT:
+                loadText(column, n);
+                break;
+            default:
+                break; // BOOLEAN values are the bytes of the chunk
+        }
+    }
+
+    private static void loadText(final Column column, final int n) throws IOException {
+        if (column.m_offsets == null || column.m_offsets.length < n) {
+            column.m_offsets = new int[n];
+            column.m_lengths = new int[n];
+        }
+        final byte[] chunk = column.m_chunk;
+        final int[] offsets = column.m_offsets;
+        final int[] lengths = column.m_lengths;
+        int pos = 1;
+        if (chunk[0] == DBFColumnarFile.PLAIN) {
+            for (int row = 0; row < n; row++) {
+                lengths[row] = WritableComparator.readVInt(chunk, pos);
+                pos += WritableUtils.decodeVIntSize(chunk[pos]);
+                offsets[row] = pos;
+                pos += lengths[row];
+            }
+            return;
+        }
+        final int entries = WritableComparator.readVInt(chunk, pos);
+        pos += WritableUtils.decodeVIntSize(chunk[pos]);
+        final int[] entryOffsets = new int[entries];
+        final int[] entryLengths = new int[entries];
+        for (int id = 0; id < entries; id++) {
+            entryLengths[id] = WritableComparator.readVInt(chunk, pos);
+            pos += WritableUtils.decodeVIntSize(chunk[pos]);
+            entryOffsets[id] = pos;
+            pos += entryLengths[id];
+        }
+        final int width = DBFColumnarWriter.idWidth(entries);
+        for (int row = 0; row < n; row++, pos += width) {
+            final int id = width == 1 ? chunk[pos] & 0xFF : (width == 2 ? WritableComparator.readUnsignedShort(chunk, pos) : WritableComparator.readInt(chunk, pos));
+            offsets[row] = entryOffsets[id];
+            lengths[row] = entryLengths[id];
+        }
+    }
+
+    /**
+     * Return the value of a row as DBFField.readWritable() would, reusing
+     * the given instance if it has the right type. Exact values keep D
+     * fields as epoch days and F fields as double.
+     */
+    private static Writable toWritable(final Column column, final int row, final Writable reuse, final boolean exact) {
+        final DBFField field = column.m_field;
+        switch (column.m_type) {
+            case DBFRecordWritable.INT: {
+                final int value = column.m_ints[row];
+                if (field.dataType == 'D') {
+                    if (value == DBFField.INVALID_DATE) {
+                        return NullWritable.get();
+                    }
+                    if (!exact && !field.dateAsEpochDays) {
+                        final LongWritable writable = reuse instanceof LongWritable ? (LongWritable) reuse : new LongWritable();
+                        writable.set(value * DBFField.MILLIS_PER_DAY);
+                        return writable;
+                    }
+                }
+                final IntWritable writable = reuse instanceof IntWritable ? (IntWritable) reuse : new IntWritable();
+                writable.set(value);
+                return writable;
+            }
+            case DBFRecordWritable.LONG: {
+                final LongWritable writable = reuse instanceof LongWritable ? (LongWritable) reuse : new LongWritable();
+                writable.set(column.m_longs[row]);
+                return writable;
+            }
+            case DBFRecordWritable.DOUBLE: {
+                if (field.dataType == 'F' && !exact) {
+                    final FloatWritable writable = reuse instanceof FloatWritable ? (FloatWritable) reuse : new FloatWritable();
+                    writable.set((float) column.m_doubles[row]);
+                    return writable;
+                }
+                final DoubleWritable writable = reuse instanceof DoubleWritable ? (DoubleWritable) reuse : new DoubleWritable();
+                writable.set(column.m_doubles[row]);
+                return writable;
+            }
+            case DBFRecordWritable.BOOLEAN: {
+                final BooleanWritable writable = reuse instanceof BooleanWritable ? (BooleanWritable) reuse : new BooleanWritable();
+                writable.set(column.m_chunk[row] != 0);
+                return writable;
+            }
+            case DBFRecordWritable.TEXT: {
+                final Text writable = reuse instanceof Text ? (Text) reuse : new Text();
+                writable.set(column.m_chunk, column.m_offsets[row], column.m_lengths[row]);
+                return writable;
+            }
+            default:
+                return NullWritable.get();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_in.close();
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * @file	DBFColumnarSplit.java
+ */
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.InputSplit;
+
+/**
+ * A DBFColumnarSplit is a list of row groups of a columnar sidecar, with
+ * the modification time of the sidecar the splits were planned with.
+ *
+ * @see    DBFColumnarInputFormat
+ */
+public class DBFColumnarSplit implements InputSplit {
+
+    private Path m_path;
+    private long m_modificationTime;
+    private int[] m_rowGroups;
+    private long m_length;
+    private String[] m_hosts;
+
+    DBFColumnarSplit() {
+    }
+
+    public DBFColumnarSplit(final Path path, final long modificationTime, final int[] rowGroups, final long length, final String[] hosts) {
+        m_path = path;
+        m_modificationTime = modificationTime;
+        m_rowGroups = rowGroups;
+        m_length = length;
+        m_hosts = hosts;
+    }
+
+    /**
+     * Return the path of the sidecar.
+     */
+    public Path getPath() {
+        return m_path;
+    }
+
+    public long getModificationTime() {
+        return m_modificationTime;
+    }
+
+    /**
+     * Return the indexes of the row groups to read, in increasing order.
+     */
+    public int[] getRowGroups() {
+        return m_rowGroups;
+    }
+
+    /**
+     * Return the number of bytes of the row groups.
+     */
+    @Override
+    public long getLength() {
+        return m_length;
+    }
+
+    @Override
+    public String[] getLocations() throws IOException {
+        return m_hosts == null ? new String[0] : m_hosts;
+    }
+
+    @Override
+    public void write(final DataOutput out) throws IOException {
+        out.writeUTF(m_path.toString());
+        out.writeLong(m_modificationTime);
+        out.writeLong(m_length);
+        WritableUtils.writeVInt(out, m_rowGroups.length);
+        int previous = 0;
+        for (final int rowGroup : m_rowGroups) {
+            WritableUtils.writeVInt(out, rowGroup - previous);
+            previous = rowGroup;
+        }
+    }
+
+    @Override
+    public void readFields(final DataInput in) throws IOException {
+        m_path = new Path(in.readUTF());
+        m_modificationTime = in.readLong();
+        m_length = in.readLong();
+        m_rowGroups = new int[WritableUtils.readVInt(in)];
+        int previous = 0;
+        for (int i = 0; i < m_rowGroups.length; i++) {
+            m_rowGroups[i] = previous + WritableUtils.readVInt(in);
+            previous = m_rowGroups[i];
+        }
+        m_hosts = null;
+    }
+
+    @Override
+    public String toString() {
+        return m_path + ":" + (m_rowGroups.length == 0 ? "[]" : "[" + m_rowGroups[0] + ".." + m_rowGroups[m_rowGroups.length - 1] + "]");
+    }
+}
@@ -0,0 +1,389 @@
+/**
+ * @file	DBFColumnarWriter.java
+ */
+
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * DBFColumnarWriter converts the records of a DBF file which are not
+ * deleted into a columnar sidecar, in row groups of a fixed number of
+ * rows. The values of each row group are buffered in primitive arrays and
+ * the statistics of each chunk are computed on the raw records. <BR><BR>
+ *
+ * DBFColumnarWriter.convert(myJob,[dbfFileStatus],[rowGroupRecords],reporter);<BR><BR>
+ *
+ * C fields are decoded with the charset configured for DBFInputFormat. A
+ * sidecar is written under a temporary name and renamed once complete.
+ *
+ * @see    DBFColumnarFile
+ * @see    DBFColumnarConverter
+ */
+public class DBFColumnarWriter implements Closeable {
+    public static final int DEFAULT_ROW_GROUP_RECORDS = 65536;
+
+    private static final int READ_RECORDS = 4096;
+
+    /**
+     * Values of a field in the current row group.
+     */
+    private static class Column {
+        final DBFField m_field;
+        final byte m_type;
+        DBFColumnStatistics m_statistics;
+        int[] m_ints;
+        long[] m_longs;
+        double[] m_doubles;
+        byte[] m_booleans;
+        int[] m_ids; // TEXT dictionary ids
+        Map<Text, Integer> m_dictionary;
+        List<Text> m_entries;
+        long m_plainLength;
+
+        Column(final DBFField field, final int capacity) {
+            m_field = field;
+            m_type = DBFColumnarFile.typeOf(field);
+            m_statistics = new DBFColumnStatistics(DBFColumnStatistics.kindOf(field));
+            switch (m_type) {
+                case DBFRecordWritable.INT:
+                    m_ints = new int[capacity];
+                    break;
+                case DBFRecordWritable.LONG:
+                    m_longs = new long[capacity];
+                    break;
+                case DBFRecordWritable.DOUBLE:
+                    m_doubles = new double[capacity];
+                    break;
+                case DBFRecordWritable.BOOLEAN:
+                    m_booleans = new byte[capacity];
+                    break;
+                case DBFRecordWritable.TEXT:
+                    m_ids = new int[capacity];
+                    m_dictionary = new HashMap<Text, Integer>();
+                    m_entries = new ArrayList<Text>();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        void reset() {
+            m_statistics = new DBFColumnStatistics(m_statistics.getKind());
+            if (m_dictionary != null) {
+                m_dictionary.clear();
+                m_entries.clear();
+                m_plainLength = 0;
+            }
+        }
+    }
+
+    private final DataOutputStream m_out;
+    private final int m_rowGroupRecords;
+    private final Column[] m_columns;
+    private final long[] m_recnos;
+    private final Text m_text = new Text();
+    private final DataOutputBuffer m_buffer = new DataOutputBuffer();
+    private final List<DBFColumnarFile.RowGroup> m_rowGroups = new ArrayList<DBFColumnarFile.RowGroup>();
+    private long m_pos;
+    private int m_rowCount;
+
+    /**
+     * Start a sidecar of the DBF file of the given length and modification
+     * time, the fields of the header being configured to decode its records.
+     */
+    public DBFColumnarWriter(final DataOutputStream out, final DBFHeader header, final long sourceLength, final long sourceModificationTime, final int rowGroupRecords) throws IOException {
+        m_out = out;
+        m_rowGroupRecords = Math.max(1, rowGroupRecords);
+        m_recnos = new long[m_rowGroupRecords];
+        m_columns = new Column[header.numberOfFields];
+        for (int i = 0; i < m_columns.length; i++) {
+            m_columns[i] = new Column(header.getField(i), m_rowGroupRecords);
+        }
+
+        m_buffer.reset();
+        m_buffer.write(DBFColumnarFile.MAGIC);
+        m_buffer.writeByte(DBFColumnarFile.VERSION);
+        m_buffer.writeLong(sourceLength);
+        m_buffer.writeLong(sourceModificationTime);
+        header.write(m_buffer);
+        flushBuffer();
+    }
+
+    /**
+     * Convert a DBF file into its sidecar.
+     */
+    public static void convert(final JobConf job, final FileStatus dbfFile, final int rowGroupRecords, final Reporter reporter) throws IOException {
+        final Path path = dbfFile.getPath();
+        final FileSystem fs = path.getFileSystem(job);
+        final DBFHeader dbfHeader = DBFInputFormat.readHeader(job, dbfFile);
+        if (dbfHeader == null) {
+            throw new IOException("Cannot convert empty DBF file " + path);
+        }
+        final DBFHeader header = dbfHeader.copy();
+        DBFRecordReader.configureFields(header, job, new ArrayList<DBFField>());
+
+        final Path sidecar = DBFColumnarFile.getSidecarPath(path);
+        final Path tmp = new Path(sidecar.getParent(), "_" + sidecar.getName() + ".tmp");
+        final DataInputStream in = DBFInputFormat.openRecords(job, path, header);
+        boolean converted = false;
+        try {
+            final DBFReader reader = new DBFReader(in, header);
+            final DBFColumnarWriter writer = new DBFColumnarWriter(fs.create(tmp, true), header, dbfFile.getLen(), dbfFile.getModificationTime(), rowGroupRecords);
+            try {
+                final byte[] records = new byte[READ_RECORDS * header.recordLength];
+                int size;
+                while ((size = reader.readRecords(records, READ_RECORDS)) > 0) {
+                    final long firstRecno = reader.getRecordNumber() - size + 1;
+                    for (int row = 0, from = 0; row < size; row++, from += header.recordLength) {
+                        if (records[from] != DBFType.DELETED) {
+                            writer.add(firstRecno + row, records, from);
+                        }
+                    }
+                    reporter.progress();
+                }
+            }
+            finally {
+                writer.close();
+            }
+            converted = true;
+        }
+        finally {
+            in.close();
+            if (!converted) {
+                fs.delete(tmp, false);
+            }
+        }
+        if (fs.exists(sidecar)) {
+            fs.delete(sidecar, false);
+        }
+        if (!fs.rename(tmp, sidecar)) {
+            throw new IOException("Cannot rename " + tmp + " to " + sidecar);
+        }
+    }
+
+    /**
+     * Add the record starting at offset from of a buffer, as the row of
+     * the given record number.
+     */
+    public void add(final long recno, final byte[] bytes, final int from) throws IOException {
+        final int row = m_rowCount;
+        m_recnos[row] = recno;
+        for (final Column column : m_columns) {
+            final DBFField field = column.m_field;
+            final int offset = from + field.offset;
+            final DBFColumnStatistics statistics = column.m_statistics;
+            switch (column.m_type) {
+                case DBFRecordWritable.INT: {
+                    final int value;
+                    if (field.dataType == 'D') {
+                        value = field.readEpochDay(bytes, offset);
+                        if (value != DBFField.INVALID_DATE || field.isBlank(bytes, offset)) {
+                            statistics.add(value);
+                        }
+                        else {
+                            statistics.addNull();
+                        }
+                    }
+                    else {
+                        value = field.readInteger(bytes, offset);
+                        statistics.add(value);
+                    }
+                    column.m_ints[row] = value;
+                    break;
+                }
+                case DBFRecordWritable.LONG: {
+                    final long value = field.readLong(bytes, offset);
+                    statistics.add(value);
+                    column.m_longs[row] = value;
+                    break;
+                }
+                case DBFRecordWritable.DOUBLE: {
+                    final double value = field.readDouble(bytes, offset);
+                    statistics.add(value);
+                    column.m_doubles[row] = value;
+                    break;
+                }
+                case DBFRecordWritable.BOOLEAN: {
+                    final boolean value = field.readLogical(bytes, offset);
+                    statistics.add(value ? 1 : 0);
+                    column.m_booleans[row] = value ? (byte) 1 : (byte) 0;
+                    break;
+                }
+                case DBFRecordWritable.TEXT: {
+                    statistics.addBytes(bytes, offset, offset + field.fieldLength);
+                    field.readText(bytes, offset, m_text);
+                    Integer id = column.m_dictionary.get(m_text);
+                    if (id == null) {
+                        id = column.m_entries.size();
+                        final Text entry = new Text(m_text);
+                        column.m_dictionary.put(entry, id);
+                        column.m_entries.add(entry);
+                    }
+                    column.m_ids[row] = id;
+                    column.m_plainLength += WritableUtils.getVIntSize(m_text.getLength()) + m_text.getLength();
+                    break;
+                }
+                default:
+                    statistics.add(field, bytes, offset);
+                    break;
+            }
+        }
+        if (++m_rowCount == m_rowGroupRecords) {
+            writeRowGroup();
+        }
+    }
+
+    private void writeRowGroup() throws IOException {
+        final DBFColumnarFile.RowGroup rowGroup = new DBFColumnarFile.RowGroup();
+        rowGroup.m_offset = m_pos;
+        rowGroup.m_rowCount = m_rowCount;
+        rowGroup.m_firstRecno = m_recnos[0];
+        rowGroup.m_chunkLengths = new int[m_columns.length];
+        rowGroup.m_statistics = new DBFColumnStatistics[m_columns.length];
+
+        m_buffer.reset();
+        long previous = rowGroup.m_firstRecno;
+        for (int row = 0; row < m_rowCount; row++) {
+            WritableUtils.writeVLong(m_buffer, m_recnos[row] - previous);
+            previous = m_recnos[row];
+        }
+        rowGroup.m_recnoLength = m_buffer.getLength();
+        flushBuffer();
+
+        for (int i = 0; i < m_columns.length; i++) {
+            final Column column = m_columns[i];
+            m_buffer.reset();
+            writeChunk(column);
+            rowGroup.m_chunkLengths[i] = m_buffer.getLength();
+            flushBuffer();
+
+            rowGroup.m_statistics[i] = column.m_statistics;
+            column.reset();
+        }
+        m_rowGroups.add(rowGroup);
+        m_rowCount = 0;
+    }
+
+    private void writeChunk(final Column column) throws IOException {
+        final int n = m_rowCount;
+        switch (column.m_type) {
+            case DBFRecordWritable.INT:
+                for (int row = 0; row < n; row++) {
+                    m_buffer.writeInt(column.m_ints[row]);
+                }
+                break;
+            case DBFRecordWritable.LONG:
+                for (int row = 0; row < n; row++) {
+                    m_buffer.writeLong(column.m_longs[row]);
+                }
+                break;
+            case DBFRecordWritable.DOUBLE:
+                for (int row = 0; row < n; row++) {
+                    m_buffer.writeDouble(column.m_doubles[row]);
+                }
+                break;
+            case DBFRecordWritable.BOOLEAN:
+                m_buffer.write(column.m_booleans, 0, n);
+                break;
+            case DBFRecordWritable.TEXT: {
+                final List<Text> entries = column.m_entries;
+                final int width = idWidth(entries.size());
+                long dictionaryLength = (long) n * width;
+                for (final Text entry : entries) {
+                    dictionaryLength += WritableUtils.getVIntSize(entry.getLength()) + entry.getLength();
+                }
+                if (dictionaryLength < column.m_plainLength) {
+                    m_buffer.writeByte(DBFColumnarFile.DICTIONARY);
+                    WritableUtils.writeVInt(m_buffer, entries.size());
+                    for (final Text entry : entries) {
+                        WritableUtils.writeVInt(m_buffer, entry.getLength());
+                        m_buffer.write(entry.getBytes(), 0, entry.getLength());
+                    }
+                    for (int row = 0; row < n; row++) {
+                        final int id = column.m_ids[row];
+                        if (width == 1) {
+                            m_buffer.writeByte(id);
+                        }
+                        else if (width == 2) {
+                            m_buffer.writeShort(id);
+                        }
+                        else {
+                            m_buffer.writeInt(id);
+                        }
+                    }
+                }
+                else {
+                    m_buffer.writeByte(DBFColumnarFile.PLAIN);
+                    for (int row = 0; row < n; row++) {
+                        final Text entry = entries.get(column.m_ids[row]);
+                        WritableUtils.writeVInt(m_buffer, entry.getLength());
+                        m_buffer.write(entry.getBytes(), 0, entry.getLength());
+                    }
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Return the number of bytes of the ids of a dictionary of the given
+     * size.
+     */
+    static int idWidth(final int entries) {
+        return entries <= 256 ? 1 : (entries <= 65536 ? 2 : 4);
+    }
+
+    private void flushBuffer() throws IOException {
+        m_out.write(m_buffer.getData(), 0, m_buffer.getLength());
+        m_pos += m_buffer.getLength();
+    }
+
+    /**
+     * Write the last row group and the footer, then close the stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (m_rowCount > 0) {
+                writeRowGroup();
+            }
+            final long footerOffset = m_pos;
+            m_buffer.reset();
+            WritableUtils.writeVInt(m_buffer, m_rowGroups.size());
+            for (final DBFColumnarFile.RowGroup rowGroup : m_rowGroups) {
+                WritableUtils.writeVLong(m_buffer, rowGroup.m_offset);
+                WritableUtils.writeVInt(m_buffer, rowGroup.m_rowCount);
+                WritableUtils.writeVLong(m_buffer, rowGroup.m_firstRecno);
+                WritableUtils.writeVInt(m_buffer, rowGroup.m_recnoLength);
+                for (int i = 0; i < m_columns.length; i++) {
+                    WritableUtils.writeVInt(m_buffer, rowGroup.m_chunkLengths[i]);
+                    rowGroup.m_statistics[i].write(m_buffer);
+                }
+            }
+            m_buffer.writeLong(footerOffset);
+            m_buffer.write(DBFColumnarFile.MAGIC);
+            flushBuffer();
+        }
+        finally {
+            m_out.close();
+        }
+    }
+}
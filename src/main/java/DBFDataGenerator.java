@@ -0,0 +1,278 @@
+/**
+ * @file	DBFDataGenerator.java
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * DBFDataGenerator writes synthetic DBF files for benchmarks. The fields
+ * are given by a type mix, a comma separated list of field specifications
+ * such as C12, N9, N12.3, F12.4, D or L, repeated up to the number of
+ * fields. A ratio of the records are marked deleted, and C values mix
+ * CJK characters into ASCII words when the charset can encode them. <BR><BR>
+ *
+ * hadoop jar [jar] DBFDataGenerator [-fields n] [-types mix] [-deleted ratio]
+ *     [-charset name] [-records n] [-files n] [-seed n] dir<BR><BR>
+ *
+ * writes files dir/part-NNNNN.dbf of random records, repeatable for a
+ * given seed.
+ *
+ * @see    DBFMicroBenchmark
+ */
+public class DBFDataGenerator {
+    public static final String DEFAULT_TYPES = "C12,N4,N9,N18,N12.3,F12.4,D,L";
+
+    private static final String ASCII_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    private static final String CJK_CHARS = "\u5317\u4eac\u4e0a\u6d77\u5e7f\u5dde\u6df1\u5733\u9053\u8def\u9ad8\u901f\u56fd\u7701\u53bf\u4e61\u9547\u6751\u8857\u5df7\u6865\u96a7\u4e1c\u897f\u5357\u5317\u4e2d";
+    private static final int FIRST_EPOCH_DAY = 3652; // 1980-01-01
+    private static final int EPOCH_DAYS = 18262; // Up to 2029-12-31
+
+    private final DBFHeader m_header;
+    private final double m_deletedRatio;
+    private final Random m_random;
+    private final boolean m_cjk;
+    private final Writable[] m_values;
+    private final StringBuilder m_chars = new StringBuilder();
+
+    /**
+     * Create a generator of records of fieldCount fields taken in turn from
+     * the type mix.
+     *
+     * @throws IllegalArgumentException if a field specification is invalid
+     */
+    public DBFDataGenerator(final int fieldCount, final String types, final double deletedRatio, final Charset charset, final long seed) {
+        final String[] specs = types.split(",");
+        final List<DBFField> fields = new ArrayList<DBFField>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            fields.add(parseField("F" + i, specs[i % specs.length].trim()));
+        }
+        m_header = DBFHeader.create(fields, charset);
+        m_deletedRatio = deletedRatio;
+        m_random = new Random(seed);
+        final CharsetEncoder encoder = charset.newEncoder();
+        m_cjk = encoder.canEncode(CJK_CHARS);
+        m_values = new Writable[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            final DBFField field = fields.get(i);
+            switch (field.dataType) {
+                case 'C':
+                    m_values[i] = new Text();
+                    break;
+                case 'D':
+                    m_values[i] = new IntWritable();
+                    break;
+                case 'L':
+                    m_values[i] = new BooleanWritable();
+                    break;
+                default:
+                    m_values[i] = field.decimalCount == 0 && field.dataType == 'N' ? new LongWritable() : new DoubleWritable();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Parse a field specification, a type followed by a length and decimals
+     * for C, N and F fields.
+     */
+    static DBFField parseField(final String fieldName, final String spec) {
+        if (spec.length() == 0) {
+            throw new IllegalArgumentException("Empty field specification");
+        }
+        final byte dataType = (byte) Character.toUpperCase(spec.charAt(0));
+        final String size = spec.substring(1);
+        final int dot = size.indexOf('.');
+        try {
+            switch (dataType) {
+                case 'D':
+                case 'L':
+                    return new DBFField(fieldName, dataType, 0, 0);
+                case 'C':
+                case 'N':
+                case 'F':
+                    final int length = Integer.parseInt(dot < 0 ? size : size.substring(0, dot));
+                    final int decimals = dot < 0 ? 0 : Integer.parseInt(size.substring(dot + 1));
+                    return new DBFField(fieldName, dataType, length, decimals);
+                default:
+                    throw new IllegalArgumentException("Unsupported field type in " + spec);
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid field specification " + spec, e);
+        }
+    }
+
+    public DBFHeader getHeader() {
+        return m_header;
+    }
+
+    /**
+     * Fill a record buffer with the next random record, its deleted flag
+     * included.
+     */
+    public void nextRecord(final byte[] record) throws IOException {
+        record[0] = m_random.nextDouble() < m_deletedRatio ? DBFType.DELETED : (byte) ' ';
+        for (int i = 0; i < m_values.length; i++) {
+            final DBFField field = m_header.getField(i);
+            final Writable value = m_values[i];
+            switch (field.dataType) {
+                case 'C':
+                    ((Text) value).set(nextText(field.fieldLength));
+                    break;
+                case 'D':
+                    ((IntWritable) value).set(FIRST_EPOCH_DAY + m_random.nextInt(EPOCH_DAYS));
+                    break;
+                case 'L':
+                    ((BooleanWritable) value).set(m_random.nextBoolean());
+                    break;
+                default:
+                    // Integral digits left once the sign and decimals are counted
+                    final int digits = Math.min(18, field.fieldLength - 1 - (field.decimalCount > 0 ? field.decimalCount + 1 : 0));
+                    long max = 1;
+                    for (int d = 0; d < digits; d++) {
+                        max *= 10;
+                    }
+                    final long integral = (m_random.nextLong() & Long.MAX_VALUE) % max * (m_random.nextBoolean() ? 1 : -1);
+                    if (value instanceof LongWritable) {
+                        ((LongWritable) value).set(integral);
+                    }
+                    else {
+                        ((DoubleWritable) value).set(integral + m_random.nextInt(1000) / 1000.0);
+                    }
+                    break;
+            }
+            field.writeWritable(value, record, field.offset);
+        }
+    }
+
+    /**
+     * Return a random word of up to length bytes in the charset, CJK
+     * characters counting for 2 bytes.
+     */
+    private String nextText(final int length) {
+        m_chars.setLength(0);
+        int remaining = 1 + m_random.nextInt(Math.max(1, length));
+        while (remaining > 0) {
+            if (m_cjk && remaining >= 2 && m_random.nextInt(3) == 0) {
+                m_chars.append(CJK_CHARS.charAt(m_random.nextInt(CJK_CHARS.length())));
+                remaining -= 2;
+            }
+            else {
+                m_chars.append(ASCII_CHARS.charAt(m_random.nextInt(ASCII_CHARS.length())));
+                remaining--;
+            }
+        }
+        return m_chars.toString();
+    }
+
+    /**
+     * Write a DBF file of recordCount random records.
+     */
+    public void write(final OutputStream out, final long recordCount) throws IOException {
+        final DBFRecordWriter writer = new DBFRecordWriter(out, m_header);
+        final byte[] record = new byte[m_header.recordLength];
+        for (long i = 0; i < recordCount; i++) {
+            nextRecord(record);
+            writer.writeRecord(record);
+        }
+        writer.close(Reporter.NULL);
+    }
+
+    /**
+     * Return the bytes of a DBF file of recordCount random records.
+     */
+    public byte[] toBytes(final int recordCount) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(m_header.headerLength + recordCount * m_header.recordLength + 1);
+        write(out, recordCount);
+        return out.toByteArray();
+    }
+
+    /**
+     * Write files dir/part-NNNNN.dbf of recordCount random records each.
+     */
+    public List<Path> writeFiles(final FileSystem fs, final Path dir, final int fileCount, final long recordCount) throws IOException {
+        final List<Path> paths = new ArrayList<Path>(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            final Path path = new Path(dir, String.format("part-%05d.dbf", i));
+            write(fs.create(path, true), recordCount);
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    /**
+     * Generate the files of the command line.
+     */
+    public static class Generate extends Configured implements Tool {
+        @Override
+        public int run(final String[] args) throws Exception {
+            int fieldCount = 8;
+            String types = DEFAULT_TYPES;
+            double deletedRatio = 0;
+            String charset = DBFField.DEFAULT_CHARSET.name();
+            long recordCount = 100000;
+            int fileCount = 1;
+            long seed = 1;
+            Path dir = null;
+            for (int i = 0; i < args.length; i++) {
+                if ("-fields".equals(args[i]) && i + 1 < args.length) {
+                    fieldCount = Integer.parseInt(args[++i]);
+                }
+                else if ("-types".equals(args[i]) && i + 1 < args.length) {
+                    types = args[++i];
+                }
+                else if ("-deleted".equals(args[i]) && i + 1 < args.length) {
+                    deletedRatio = Double.parseDouble(args[++i]);
+                }
+                else if ("-charset".equals(args[i]) && i + 1 < args.length) {
+                    charset = args[++i];
+                }
+                else if ("-records".equals(args[i]) && i + 1 < args.length) {
+                    recordCount = Long.parseLong(args[++i]);
+                }
+                else if ("-files".equals(args[i]) && i + 1 < args.length) {
+                    fileCount = Integer.parseInt(args[++i]);
+                }
+                else if ("-seed".equals(args[i]) && i + 1 < args.length) {
+                    seed = Long.parseLong(args[++i]);
+                }
+                else {
+                    dir = new Path(args[i]);
+                }
+            }
+            if (dir == null) {
+                System.err.println("Usage: DBFDataGenerator [-fields n] [-types mix] [-deleted ratio] [-charset name] [-records n] [-files n] [-seed n] dir");
+                ToolRunner.printGenericCommandUsage(System.err);
+                return 2;
+            }
+            final DBFDataGenerator generator = new DBFDataGenerator(fieldCount, types, deletedRatio, Charset.forName(charset), seed);
+            generator.writeFiles(dir.getFileSystem(getConf()), dir, fileCount, recordCount);
+            return 0;
+        }
+    }
+
+    public static void main(final String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Generate(), args));
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * @file	DBFDictionary.java
+ */
+
+
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * DBFDictionary is a bounded dictionary of the decoded values of a C field,
+ * keyed on the raw padded bytes of the field. It lets low cardinality
+ * columns skip charset decoding for repeated values. <BR><BR>
+ *
+ * When the dictionary is full it is cleared, and if fewer than half of the
+ * lookups since the previous clear were hits it is disabled for the rest of
+ * the split, the field falling back to normal decoding. <BR><BR>
+ *
+ * Hits, misses, evicted entries and disabled dictionaries are reported as
+ * counters of the COUNTER_GROUP group, per field.
+ */
+public class DBFDictionary {
+    public static final String COUNTER_GROUP = "DBF Dictionary";
+
+    private final int m_keyLength;
+    private final int m_maxEntries;
+    private final byte[][] m_keys; // Open addressing table with linear probing
+    private final byte[][] m_values; // UTF-8 bytes of the decoded values
+    private final int m_mask;
+    private int m_size;
+    private boolean m_enabled = true;
+
+    private long m_hits;
+    private long m_misses;
+    private long m_evictions;
+    private long m_hitsSinceClear;
+    private long m_missesSinceClear;
+
+    public DBFDictionary(final int keyLength, final int maxEntries) {
+        m_keyLength = keyLength;
+        m_maxEntries = Math.max(1, maxEntries);
+        int capacity = 2;
+        while (capacity < m_maxEntries * 2) {
+            capacity <<= 1;
+        }
+        m_keys = new byte[capacity][];
+        m_values = new byte[capacity][];
+        m_mask = capacity - 1;
+    }
+
+    public boolean isEnabled() {
+        return m_enabled;
+    }
+
+    /**
+     * Set the text to the value cached for the key bytes starting at from,
+     * returning false if there is none.
+     */
+    public boolean lookup(final byte[] bytes, final int from, final Text text) {
+        int slot = hash(bytes, from) & m_mask;
+        byte[] key;
+        while ((key = m_keys[slot]) != null) {
+            if (equals(key, bytes, from)) {
+                final byte[] value = m_values[slot];
+                text.set(value, 0, value.length);
+                m_hits++;
+                m_hitsSinceClear++;
+                return true;
+            }
+            slot = (slot + 1) & m_mask;
+        }
+        m_misses++;
+        m_missesSinceClear++;
+        return false;
+    }
+
+    /**
+     * Cache the text decoded from the key bytes starting at from, after a
+     * lookup miss.
+     */
+    public void add(final byte[] bytes, final int from, final Text text) {
+        if (!m_enabled) {
+            return;
+        }
+        if (m_size >= m_maxEntries) {
+            m_evictions += m_size;
+            m_size = 0;
+            Arrays.fill(m_keys, null);
+            Arrays.fill(m_values, null);
+            if (m_hitsSinceClear < m_missesSinceClear) {
+                m_enabled = false;
+                return;
+            }
+            m_hitsSinceClear = 0;
+            m_missesSinceClear = 0;
+        }
+        int slot = hash(bytes, from) & m_mask;
+        while (m_keys[slot] != null) {
+            slot = (slot + 1) & m_mask;
+        }
+        m_keys[slot] = Arrays.copyOfRange(bytes, from, from + m_keyLength);
+        m_values[slot] = Arrays.copyOf(text.getBytes(), text.getLength());
+        m_size++;
+    }
+
+    private int hash(final byte[] bytes, final int from) {
+        int h = 0x811C9DC5;
+        for (int i = from; i < from + m_keyLength; i++) {
+            h = (h ^ bytes[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private boolean equals(final byte[] key, final byte[] bytes, final int from) {
+        for (int i = 0; i < m_keyLength; i++) {
+            if (key[i] != bytes[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Report the statistics of this dictionary as counters named after the
+     * field, then reset them.
+     */
+    public void report(final Reporter reporter, final String fieldName) {
+        reporter.incrCounter(COUNTER_GROUP, fieldName + " hits", m_hits);
+        reporter.incrCounter(COUNTER_GROUP, fieldName + " misses", m_misses);
+        reporter.incrCounter(COUNTER_GROUP, fieldName + " evictions", m_evictions);
+        reporter.incrCounter(COUNTER_GROUP, fieldName + " disabled", m_enabled ? 0 : 1);
+        m_hits = 0;
+        m_misses = 0;
+        m_evictions = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "DBFDictionary{size=" + m_size + ", hits=" + m_hits + ", misses=" + m_misses + ", evictions=" + m_evictions + ", enabled=" + m_enabled + "}";
+    }
+}
@@ -10,7 +10,15 @@ import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.GregorianCalendar;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
 
 import org.apache.hadoop.io.BooleanWritable;
 import org.apache.hadoop.io.DoubleWritable;
@@ -43,8 +51,53 @@ public class DBFField implements Writable {
     private byte[] reserved4 = new byte[7]; /* 24-30 */
     private byte indexFieldFlag; /* 31    */
 
+    public int offset; // Offset of this field in a record, the deleted flag byte is at 0
+
     private Writable fieldValue; // Only one writable instance for this field
 
+    public static final int INVALID_DATE = Integer.MIN_VALUE; // Epoch day of blank or invalid dates
+    static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+    private static final int DATE_CACHE_SIZE = 16; // Must be a power of 2
+
+    boolean dateAsEpochDays; // Decode D fields as int epoch days instead of long millis
+
+    public static final Charset DEFAULT_CHARSET = Charset.forName("GBK");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private Charset charset = DEFAULT_CHARSET; // Charset of C fields
+    private boolean asciiCompatible = true; // Whether bytes below 0x80 are ASCII in charset
+    private CharsetDecoder decoder;
+    private CharsetEncoder encoder; // UTF-8 encoder of decoded chars into Text
+    private CharBuffer decodedChars;
+    private ByteBuffer encodedBytes;
+    DBFDictionary dictionary; // Optional cache of decoded C values
+    DBFMemoFile memoFile; // Memo file of M fields, values are null without it
+    private long[] dateCacheKeys; // Recently decoded YYYYMMDD bytes packed in a long
+    private int[] dateCacheDays;
+
+    private CharsetDecoder writeDecoder; // UTF-8 decoder of Text values to write
+    private CharsetEncoder writeEncoder; // Encoder of C values into charset
+    private CharBuffer writeChars;
+
+    public DBFField() {
+    }
+
+    /**
+     * Create a field to write, D and L fields having their fixed length.
+     */
+    public DBFField(final String fieldName, final byte dataType, final int fieldLength, final int decimalCount) {
+        if (fieldName.length() == 0 || fieldName.length() > 10) {
+            throw new IllegalArgumentException("Field name " + fieldName + " must have 1 to 10 characters");
+        }
+        this.fieldName = fieldName;
+        this.dataType = dataType;
+        this.fieldLength = dataType == 'D' ? 8 : (dataType == 'L' ? 1 : fieldLength);
+        this.decimalCount = (byte) decimalCount;
+        if (this.fieldLength < 1 || this.fieldLength > 255 || decimalCount < 0 || (decimalCount > 0 && decimalCount >= this.fieldLength - 1)) {
+            throw new IllegalArgumentException("Invalid length " + fieldLength + "." + decimalCount + " of field " + fieldName);
+        }
+    }
+
     public static DBFField read(final DataInput in) throws IOException {
         final DBFField field = new DBFField();
 
@@ -80,28 +133,56 @@ public class DBFField implements Writable {
     public Object readValue(final DataInputStream dataInputStream) throws IOException {
         final byte bytes[] = new byte[fieldLength];
         dataInputStream.readFully(bytes);
+        return readValue(bytes, 0);
+    }
+
+    /**
+     * Decode the value of this field from a record buffer.
+     *
+     * @param bytes the record buffer
+     * @param from  the index of the first byte of this field in the buffer
+     * @return the decoded value, or null for unsupported types
+     */
+    public Object readValue(final byte[] bytes, final int from) throws IOException {
+        final int to = from + fieldLength;
 
         switch (dataType) {
             case 'C':
-                return new String(bytes).trim();
+                final int end = trimTrailingBlanks(bytes, from, to);
+                final int start = trimLeadingBlanks(bytes, from, end);
+                return new String(bytes, start, end - start, charset);
             case 'D':
-                return readTimeInMillis(bytes);
+                final int epochDay = readEpochDay(bytes, from);
+                if (epochDay == INVALID_DATE) {
+                    return null;
+                }
+                if (dateAsEpochDays) {
+                    return epochDay;
+                }
+                return epochDay * MILLIS_PER_DAY;
             case 'F':
-                return readFloat(bytes);
+                return readFloat(bytes, from, to);
             case 'L':
-                return readLogical(bytes);
+                return readLogical(bytes, from);
+            case 'M': {
+                final long block = readMemoBlock(bytes, from);
+                if (memoFile == null || block <= 0) {
+                    return null;
+                }
+                return new String(memoFile.read(block), charset);
+            }
             case 'N':
                 if (decimalCount == 0) {
                     if (fieldLength < 5) {
-                        return readShort(bytes);
+                        return readShort(bytes, from, to);
                     }
                     if (fieldLength < 8) {
-                        return readInteger(bytes);
+                        return readInteger(bytes, from, to);
                     }
-                    return readLong(bytes);
+                    return readLong(bytes, from, to);
                 }
                 else {
-                    return readDouble(bytes);
+                    return readDouble(bytes, from, to);
                 }
             default:
                 return null;
@@ -111,68 +192,125 @@ public class DBFField implements Writable {
     public Writable readWritable(final DataInputStream dataInputStream) throws IOException {
         final byte bytes[] = new byte[fieldLength];
         dataInputStream.readFully(bytes);
+        return readWritable(bytes, 0);
+    }
+
+    /**
+     * Decode the value of this field from a record buffer into the single
+     * Writable instance owned by this field.
+     *
+     * @param bytes the record buffer
+     * @param from  the index of the first byte of this field in the buffer
+     * @return the reused Writable holding the decoded value
+     */
+    public Writable readWritable(final byte[] bytes, final int from) throws IOException {
+        final Writable value = readWritable(bytes, from, fieldValue);
+        if (value != NullWritable.get()) {
+            fieldValue = value;
+        }
+        return value;
+    }
+
+    /**
+     * Decode the value of this field from a record buffer into the given
+     * Writable, as returned by a previous call for this field, or into a new
+     * one if it is null.
+     *
+     * @param bytes the record buffer
+     * @param from  the index of the first byte of this field in the buffer
+     * @param value the Writable to reuse, or null
+     * @return the Writable holding the decoded value
+     */
+    public Writable readWritable(final byte[] bytes, final int from, Writable value) throws IOException {
+        final int to = from + fieldLength;
 
         switch (dataType) {
             case 'C':
-                Text txetValue = (Text) fieldValue;
+                Text txetValue = (Text) value;
                 if (null == txetValue) {
                     txetValue = new Text();
-                    fieldValue = txetValue;
+                    value = txetValue;
                 }
-                txetValue.set(new String(bytes, "GBK").trim()); // TODO charset GBK
+                readText(bytes, from, txetValue);
                 break;
             case 'D':
-                LongWritable longValue = (LongWritable) fieldValue;
+                final int epochDay = readEpochDay(bytes, from);
+                if (epochDay == INVALID_DATE) {
+                    return NullWritable.get();
+                }
+                if (dateAsEpochDays) {
+                    IntWritable dayValue = (IntWritable) value;
+                    if (null == dayValue) {
+                        dayValue = new IntWritable();
+                        value = dayValue;
+                    }
+                    dayValue.set(epochDay);
+                    break;
+                }
+                LongWritable longValue = (LongWritable) value;
                 if (null == longValue) {
                     longValue = new LongWritable();
-                    fieldValue = longValue;
+                    value = longValue;
                 }
-                longValue.set(readTimeInMillis(bytes));
+                longValue.set(epochDay * MILLIS_PER_DAY);
                 break;
             case 'F':
-                FloatWritable floatValue = (FloatWritable) fieldValue;
+                FloatWritable floatValue = (FloatWritable) value;
                 if (null == floatValue) {
                     floatValue = new FloatWritable();
-                    fieldValue = floatValue;
+                    value = floatValue;
                 }
-                floatValue.set(readFloat(bytes));
+                floatValue.set(readFloat(bytes, from, to));
                 break;
             case 'L':
-                BooleanWritable booleanValue = (BooleanWritable) fieldValue;
+                BooleanWritable booleanValue = (BooleanWritable) value;
                 if (null == booleanValue) {
                     booleanValue = new BooleanWritable();
-                    fieldValue = booleanValue;
+                    value = booleanValue;
+                }
+                booleanValue.set(readLogical(bytes, from));
+                break;
+            case 'M': {
+                final long block = readMemoBlock(bytes, from);
+                if (memoFile == null || block <= 0) {
+                    return NullWritable.get();
                 }
-                booleanValue.set(readLogical(bytes));
+                DBFMemoWritable memoValue = (DBFMemoWritable) value;
+                if (null == memoValue) {
+                    memoValue = new DBFMemoWritable();
+                    value = memoValue;
+                }
+                memoValue.set(memoFile, block, charset);
                 break;
+            }
             case 'N':
                 if (decimalCount == 0) {
                     if (fieldLength < 8) {
-                        IntWritable intValue = (IntWritable) fieldValue;
+                        IntWritable intValue = (IntWritable) value;
                         if (null == intValue) {
                             intValue = new IntWritable();
-                            fieldValue = intValue;
+                            value = intValue;
                         }
-                        intValue.set(readInteger(bytes));
+                        intValue.set(readInteger(bytes, from, to));
                         break;
                     }
-                    LongWritable longValue2 = (LongWritable) fieldValue;
+                    LongWritable longValue2 = (LongWritable) value;
                     if (null == longValue2) {
                         longValue2 = new LongWritable();
-                        fieldValue = longValue2;
+                        value = longValue2;
                     }
-                    longValue2.set(readLong(bytes));
+                    longValue2.set(readLong(bytes, from, to));
                     break;
                 }
                 else {
-                    DoubleWritable doubleResult = (DoubleWritable) fieldValue;
+                    DoubleWritable doubleResult = (DoubleWritable) value;
                     if (null == doubleResult) {
                         doubleResult = new DoubleWritable();
-                        fieldValue = doubleResult;
+                        value = doubleResult;
                     }
 
                     try {
-                        doubleResult.set(readDouble(bytes));
+                        doubleResult.set(readDouble(bytes, from, to));
                     }
                     catch (Exception e) {
                         throw new RuntimeException(e);
@@ -182,25 +320,187 @@ public class DBFField implements Writable {
 
                 }
             default:
-                fieldValue = NullWritable.get();
+                value = NullWritable.get();
                 break;
         }
 
-        return fieldValue;
+        return value;
 
     }
 
-    private int parseInt(final byte[] bytes, final int from, final int to) {
-        int result = 0;
-        for (int i = from; i < to && i < bytes.length; i++) {
-            result *= 10;
-            result += bytes[i] - '0';
+    /**
+     * Decode this C field into the given Text. The value is trimmed on its
+     * bytes like String.trim() would, pure ASCII values are copied as is,
+     * others are decoded and re-encoded to UTF-8 through reused buffers.
+     * With a dictionary, repeated values are not decoded again.
+     */
+    void readText(final byte[] bytes, final int from, final Text text) throws IOException {
+        if (dictionary != null && dictionary.isEnabled()) {
+            if (!dictionary.lookup(bytes, from, text)) {
+                decodeText(bytes, from, text);
+                dictionary.add(bytes, from, text);
+            }
+            return;
         }
-        return result;
+        decodeText(bytes, from, text);
+    }
+
+    private void decodeText(final byte[] bytes, final int from, final Text text) {
+        final int end = trimTrailingBlanks(bytes, from, from + fieldLength);
+        final int start = trimLeadingBlanks(bytes, from, end);
+
+        if (asciiCompatible) {
+            int i = start;
+            while (i < end && bytes[i] >= 0) {
+                i++;
+            }
+            if (i == end || charset == UTF8) {
+                text.set(bytes, start, end - start);
+                return;
+            }
+        }
+
+        if (decoder == null) {
+            decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            encoder = UTF8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            decodedChars = CharBuffer.allocate((int) Math.ceil(fieldLength * (double) decoder.maxCharsPerByte()) + 1);
+            encodedBytes = ByteBuffer.allocate((int) Math.ceil(decodedChars.capacity() * (double) encoder.maxBytesPerChar()));
+        }
+        decoder.reset();
+        decodedChars.clear();
+        decoder.decode(ByteBuffer.wrap(bytes, start, end - start), decodedChars, true);
+        decoder.flush(decodedChars);
+        decodedChars.flip();
+
+        encoder.reset();
+        encodedBytes.clear();
+        encoder.encode(decodedChars, encodedBytes, true);
+        encoder.flush(encodedBytes);
+        text.set(encodedBytes.array(), 0, encodedBytes.position());
+    }
+
+    /**
+     * Set text to the value of this M field read from the memo file,
+     * returning false when the memo is empty or there is no memo file.
+     */
+    boolean readMemo(final byte[] bytes, final int from, final Text text) throws IOException {
+        final long block = readMemoBlock(bytes, from);
+        if (memoFile == null || block <= 0) {
+            return false;
+        }
+        text.set(new String(memoFile.read(block), charset));
+        return true;
+    }
+
+    /**
+     * Return the block number of the value of an M field in the memo file,
+     * a little endian int in 4 byte fields and digits otherwise, or 0 if the
+     * value is empty.
+     */
+    long readMemoBlock(final byte[] bytes, final int from) {
+        if (fieldLength == 4) {
+            return ((bytes[from] & 0xFF) | (bytes[from + 1] & 0xFF) << 8 | (bytes[from + 2] & 0xFF) << 16 | (bytes[from + 3] & 0xFF) << 24) & 0xFFFFFFFFL;
+        }
+        long block = 0;
+        for (int i = from; i < from + fieldLength; i++) {
+            final byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                block = block * 10 + b - '0';
+            }
+            else if (b != ' ' && b != 0) {
+                return 0;
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Return the charset of the C fields.
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Set the charset of the C fields, GBK by default.
+     */
+    public void setCharset(final Charset charset) {
+        if (!charset.equals(this.charset)) {
+            this.charset = charset;
+            asciiCompatible = isAsciiCompatible(charset);
+            decoder = null;
+        }
+    }
+
+    private static boolean isAsciiCompatible(final Charset charset) {
+        final byte[] ascii = new byte[0x80];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (byte) i;
+        }
+        final String decoded = new String(ascii, charset);
+        if (decoded.length() != ascii.length) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length; i++) {
+            if (decoded.charAt(i) != i) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private short parseShort(final byte[] bytes, final int from, final int to) {
-        short result = 0;
+    /**
+     * Return the index of the first byte from from to to which is not a
+     * blank, blanks being the spaces and ASCII control characters trimmed
+     * by readText().
+     */
+    static int trimLeadingBlanks(final byte[] bytes, final int from, final int to) {
+        int i = from;
+        while (i < to && bytes[i] >= 0 && bytes[i] <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Return the index after the last byte from from to to which is not a
+     * blank.
+     */
+    static int trimTrailingBlanks(final byte[] bytes, final int from, final int to) {
+        int i = to;
+        while (i > from && bytes[i - 1] >= 0 && bytes[i - 1] <= ' ') {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Decode this N field as an int, blank, ? and * values are 0.
+     */
+    int readInteger(final byte[] bytes, final int from) throws IOException {
+        return readInteger(bytes, from, from + fieldLength);
+    }
+
+    /**
+     * Decode this N field as a long, blank, ? and * values are 0.
+     */
+    long readLong(final byte[] bytes, final int from) throws IOException {
+        return readLong(bytes, from, from + fieldLength);
+    }
+
+    /**
+     * Decode this N or F field as a double, blank, ? and * values are 0.
+     */
+    double readDouble(final byte[] bytes, final int from) throws IOException {
+        return readDouble(bytes, from, from + fieldLength);
+    }
+
+    /**
+     * Parse unsigned digits without any check, for the fixed width parts of
+     * D fields.
+     */
+    private int parseDigits(final byte[] bytes, final int from, final int to) {
+        int result = 0;
         for (int i = from; i < to && i < bytes.length; i++) {
             result *= 10;
             result += bytes[i] - '0';
@@ -208,18 +508,162 @@ public class DBFField implements Writable {
         return result;
     }
 
-    private long parseLong(final byte[] bytes, final int from, final int to) {
+    /**
+     * Parse an optionally signed integer in [min, max], accumulating
+     * negatively like Long.parseLong so that min itself can be parsed.
+     */
+    private long parseLong(final byte[] bytes, final int from, final int to, final long min, final long max) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        if (i == to) {
+            throw invalidNumber(bytes, from, to);
+        }
+        final long limit = negative ? min : -max;
+        final long multmin = limit / 10;
         long result = 0L;
-        for (int i = from; i < to && i < bytes.length; i++) {
+        for (; i < to; i++) {
+            final int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw invalidNumber(bytes, from, to);
+            }
+            if (result < multmin) {
+                throw numberOverflow(bytes, from, to);
+            }
             result *= 10L;
-            result += bytes[i] - '0';
+            if (result < limit + digit) {
+                throw numberOverflow(bytes, from, to);
+            }
+            result -= digit;
         }
-        return result;
+        return negative ? result : -result;
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private static final int MAX_MANTISSA_DIGITS = 18;
+    private static final double MAX_FAST_SCALED = 1099511627776.0; // 2^40
+    private static final double ROUNDING_MARGIN = 1.0 / 2048;
+    private static final long[] LONG_POWERS_OF_TEN = new long[MAX_MANTISSA_DIGITS + 1];
+    static {
+        LONG_POWERS_OF_TEN[0] = 1L;
+        for (int i = 1; i < LONG_POWERS_OF_TEN.length; i++) {
+            LONG_POWERS_OF_TEN[i] = LONG_POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Parse a decimal number [+-]digits[.digits][(e|E)[+-]digits] into the
+     * correctly rounded double. When the significant digits fit in 53 bits
+     * and the decimal exponent is within 22, both operands are exact and
+     * one IEEE division or multiplication rounds correctly. Other values,
+     * rare in DBF files, go through Double.parseDouble.
+     */
+    private double parseDouble(final byte[] bytes, final int from, final int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0L;
+        int digits = 0;
+        int exponent = 0;
+        boolean sawDigit = false;
+        boolean exact = true;
+        for (; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+            sawDigit = true;
+            if (digits < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10L + (bytes[i] - '0');
+                digits += mantissa == 0L ? 0 : 1;
+            }
+            else {
+                exact = false;
+            }
+        }
+        if (i < to && bytes[i] == '.') {
+            for (i++; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                sawDigit = true;
+                if (digits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10L + (bytes[i] - '0');
+                    digits += mantissa == 0L ? 0 : 1;
+                    exponent--;
+                }
+                else {
+                    exact = false;
+                }
+            }
+        }
+        if (!sawDigit) {
+            throw invalidNumber(bytes, from, to);
+        }
+        if (i < to && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            if (i == to) {
+                throw invalidNumber(bytes, from, to);
+            }
+            int e = 0;
+            for (; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                if (e < 10000) {
+                    e = e * 10 + (bytes[i] - '0');
+                }
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (i != to) {
+            throw invalidNumber(bytes, from, to);
+        }
+
+        if (exact && mantissa <= (1L << 53) && exponent >= -22 && exponent <= 22) {
+            double value = mantissa;
+            if (exponent < 0) {
+                value /= POWERS_OF_TEN[-exponent];
+            }
+            else {
+                value *= POWERS_OF_TEN[exponent];
+            }
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(new String(bytes, from, to - from));
     }
 
-    private int trimSpaces(final byte[] bytes) {
-        int i = 0, l = bytes.length;
-        while (i < l) {
+    /**
+     * Parse a decimal number into the correctly rounded float. Rounding the
+     * correctly rounded double again to float is only wrong when the double
+     * falls exactly halfway between two floats, those values and the ones
+     * outside the normal float range go through Float.parseFloat.
+     */
+    private float parseFloat(final byte[] bytes, final int from, final int to) {
+        final double value = parseDouble(bytes, from, to);
+        final double magnitude = Math.abs(value);
+        if (magnitude == 0.0 || (magnitude >= Float.MIN_NORMAL && magnitude < Float.MAX_VALUE && (Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) != 0x10000000L)) {
+            return (float) value;
+        }
+        return Float.parseFloat(new String(bytes, from, to - from));
+    }
+
+    private NumberFormatException invalidNumber(final byte[] bytes, final int from, final int to) {
+        return new NumberFormatException("Invalid number [" + new String(bytes, from, to - from) + "] in field " + fieldName);
+    }
+
+    private NumberFormatException numberOverflow(final byte[] bytes, final int from, final int to) {
+        return new NumberFormatException("Number [" + new String(bytes, from, to - from) + "] overflows field " + fieldName);
+    }
+
+    private int trimSpaces(final byte[] bytes, final int from, final int to) {
+        int i = from;
+        while (i < to) {
             if (bytes[i] != ' ') {
                 break;
             }
@@ -228,60 +672,437 @@ public class DBFField implements Writable {
         return i;
     }
 
-    private long readTimeInMillis(final byte[] bytes) throws IOException {
-        int year = parseInt(bytes, 0, 4);
-        int month = parseInt(bytes, 4, 6);
-        int day = parseInt(bytes, 6, 8);
-        return new GregorianCalendar(year, month - 1, day).getTimeInMillis();
+    /**
+     * Return the end of the value without its trailing spaces or NUL padding.
+     */
+    private int trimTrailingSpaces(final byte[] bytes, final int from, final int to) {
+        int i = to;
+        while (i > from && (bytes[i - 1] == ' ' || bytes[i - 1] == 0)) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Decode this D field as the number of days since 1970-01-01 in the
+     * proleptic Gregorian calendar, or INVALID_DATE for blank and invalid
+     * dates. Date columns are very repetitive, so the last dates decoded
+     * are kept in a small direct mapped cache keyed on their 8 bytes.
+     */
+    int readEpochDay(final byte[] bytes, final int from) {
+        if (fieldLength < 8) {
+            return INVALID_DATE;
+        }
+        long key = 0L;
+        for (int i = from; i < from + 8; i++) {
+            key = (key << 8) | (bytes[i] & 0xFF);
+        }
+        if (dateCacheKeys == null) {
+            dateCacheKeys = new long[DATE_CACHE_SIZE];
+            dateCacheDays = new int[DATE_CACHE_SIZE];
+            Arrays.fill(dateCacheDays, INVALID_DATE); // Key 0 is 8 NUL bytes, an invalid date
+        }
+        final int slot = (int) (key ^ (key >>> 24) ^ (key >>> 40)) & (DATE_CACHE_SIZE - 1);
+        if (dateCacheKeys[slot] == key) {
+            return dateCacheDays[slot];
+        }
+        final int epochDay = parseEpochDay(bytes, from);
+        dateCacheKeys[slot] = key;
+        dateCacheDays[slot] = epochDay;
+        return epochDay;
+    }
+
+    /**
+     * Convert YYYYMMDD digits to epoch days with the days_from_civil
+     * algorithm of Howard Hinnant, using 400 year eras of 146097 days.
+     */
+    private int parseEpochDay(final byte[] bytes, final int from) {
+        for (int i = from; i < from + 8; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return INVALID_DATE;
+            }
+        }
+        int year = parseDigits(bytes, from, from + 4);
+        final int month = parseDigits(bytes, from + 4, from + 6);
+        final int day = parseDigits(bytes, from + 6, from + 8);
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            return INVALID_DATE;
+        }
+        if (month <= 2) {
+            year--;
+        }
+        final int era = (year >= 0 ? year : year - 399) / 400;
+        final int yearOfEra = year - era * 400;
+        final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(final int year, final int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Decode this D field as UTC milliseconds since the epoch, or
+     * Long.MIN_VALUE for blank and invalid dates.
+     */
+    long readTimeInMillis(final byte[] bytes, final int from) {
+        final int epochDay = readEpochDay(bytes, from);
+        return epochDay == INVALID_DATE ? Long.MIN_VALUE : epochDay * MILLIS_PER_DAY;
+    }
+
+    /**
+     * Return true when this field holds only blanks in a record buffer.
+     */
+    boolean isBlank(final byte[] bytes, final int from) {
+        return trimTrailingBlanks(bytes, from, from + fieldLength) == from;
     }
 
-    private boolean readLogical(final byte[] bytes) throws IOException {
-        return bytes[0] == 'Y' || bytes[0] == 'y' || bytes[0] == 'T' || bytes[0] == 't';
+    boolean readLogical(final byte[] bytes, final int from) throws IOException {
+        return bytes[from] == 'Y' || bytes[from] == 'y' || bytes[from] == 'T' || bytes[from] == 't';
     }
 
-    private short readShort(final byte[] bytes) throws IOException {
-        final int index = trimSpaces(bytes);
-        final int length = bytes.length - index;
-        if (length == 0 || bytes[index] == '?') {
+    /**
+     * Return true for the trimmed bytes of a number without a value: blank,
+     * starting with ? or all * as dBase and FoxPro write numbers too wide
+     * for their field.
+     */
+    private static boolean isNullNumber(final byte[] bytes, final int from, final int to) {
+        if (from == to || bytes[from] == '?') {
+            return true;
+        }
+        for (int i = from; i < to; i++) {
+            if (bytes[i] != '*') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private short readShort(final byte[] bytes, final int from, final int to) throws IOException {
+        final int index = trimSpaces(bytes, from, to);
+        final int end = trimTrailingSpaces(bytes, index, to);
+        if (isNullNumber(bytes, index, end)) {
             return 0;
         }
-        return parseShort(bytes, index, bytes.length);
+        return (short) parseLong(bytes, index, end, Short.MIN_VALUE, Short.MAX_VALUE);
     }
 
-    private int readInteger(final byte[] bytes) throws IOException {
-        final int index = trimSpaces(bytes);
-        final int length = bytes.length - index;
-        if (length == 0 || bytes[index] == '?') {
+    private int readInteger(final byte[] bytes, final int from, final int to) throws IOException {
+        final int index = trimSpaces(bytes, from, to);
+        final int end = trimTrailingSpaces(bytes, index, to);
+        if (isNullNumber(bytes, index, end)) {
             return 0;
         }
-        return parseInt(bytes, index, bytes.length);
+        return (int) parseLong(bytes, index, end, Integer.MIN_VALUE, Integer.MAX_VALUE);
     }
 
-    private long readLong(final byte[] bytes) throws IOException {
-        final int index = trimSpaces(bytes);
-        final int length = bytes.length - index;
-        if (length == 0 || bytes[index] == '?') {
+    private long readLong(final byte[] bytes, final int from, final int to) throws IOException {
+        final int index = trimSpaces(bytes, from, to);
+        final int end = trimTrailingSpaces(bytes, index, to);
+        if (isNullNumber(bytes, index, end)) {
             return 0L;
         }
-        return parseLong(bytes, index, bytes.length);
+        return parseLong(bytes, index, end, Long.MIN_VALUE, Long.MAX_VALUE);
     }
 
-    private float readFloat(final byte[] bytes) throws IOException {
-        final int index = trimSpaces(bytes);
-        final int length = bytes.length - index;
-        if (length == 0 || bytes[index] == '?') {
+    private float readFloat(final byte[] bytes, final int from, final int to) throws IOException {
+        final int index = trimSpaces(bytes, from, to);
+        final int end = trimTrailingSpaces(bytes, index, to);
+        if (isNullNumber(bytes, index, end)) {
             return 0.0F;
         }
-        return Float.parseFloat(new String(bytes, index, length));
+        return parseFloat(bytes, index, end);
     }
 
-    private double readDouble(final byte[] bytes) throws IOException {
-        final int index = trimSpaces(bytes);
-        final int length = bytes.length - index;
-        if (length == 0 || bytes[index] == '?') {
+    private double readDouble(final byte[] bytes, final int from, final int to) throws IOException {
+        final int index = trimSpaces(bytes, from, to);
+        final int end = trimTrailingSpaces(bytes, index, to);
+        if (isNullNumber(bytes, index, end)) {
             return 0.0;
         }
-        return Double.parseDouble(new String(bytes, index, length));
+        return parseDouble(bytes, index, end);
+    }
+
+    /**
+     * Write the 32 bytes descriptor of this field, as read by read().
+     */
+    public void writeTo(final DataOutput out) throws IOException {
+        final byte[] name = new byte[11];
+        final byte[] nameBytes = fieldName.getBytes("US-ASCII");
+        System.arraycopy(nameBytes, 0, name, 0, Math.min(10, nameBytes.length));
+        out.write(name); /* 0-10  */
+        out.writeByte(dataType); /* 11    */
+        out.writeInt(reserved1); /* 12-15 */
+        out.writeByte(fieldLength); /* 16    */
+        out.writeByte(decimalCount); /* 17    */
+        out.writeShort(reserved2); /* 18-19 */
+        out.writeByte(workAreaId); /* 20    */
+        out.writeShort(reserved3); /* 21-22 */
+        out.writeByte(setFieldsFlag); /* 23    */
+        out.write(reserved4); /* 24-30 */
+        out.writeByte(indexFieldFlag); /* 31    */
+    }
+
+    /**
+     * Encode a value of this field into a record buffer, the value being of
+     * the types returned by readWritable(), or a Text for any field type.
+     * Null values are written blank. Numbers too wide for the field fail the
+     * write rather than being filled with asterisks as dBase does, which
+     * readers take for a missing value.
+     *
+     * @param value the value, null or NullWritable for a blank value
+     * @param bytes the record buffer
+     * @param from  the index of the first byte of this field in the buffer
+     * @throws IOException if a number is too wide for the field
+     */
+    public void writeWritable(final Writable value, final byte[] bytes, final int from) throws IOException {
+        if (value == null || value instanceof NullWritable) {
+            Arrays.fill(bytes, from, from + fieldLength, dataType == 'L' ? (byte) '?' : (byte) ' ');
+            return;
+        }
+        switch (dataType) {
+            case 'C':
+                writeText(value, bytes, from);
+                break;
+            case 'D':
+                if (value instanceof IntWritable) {
+                    writeEpochDay(((IntWritable) value).get(), bytes, from);
+                }
+                else if (value instanceof LongWritable) {
+                    final long millis = ((LongWritable) value).get();
+                    final long epochDay = millis >= 0 ? millis / MILLIS_PER_DAY : -((-millis + MILLIS_PER_DAY - 1) / MILLIS_PER_DAY);
+                    writeEpochDay(epochDay < Integer.MIN_VALUE || epochDay > Integer.MAX_VALUE ? INVALID_DATE : (int) epochDay, bytes, from);
+                }
+                else {
+                    writeAscii(value.toString(), bytes, from, false);
+                }
+                break;
+            case 'F':
+            case 'N':
+                if (value instanceof IntWritable) {
+                    writeNumber(((IntWritable) value).get(), bytes, from);
+                }
+                else if (value instanceof LongWritable) {
+                    writeNumber(((LongWritable) value).get(), bytes, from);
+                }
+                else if (value instanceof DoubleWritable) {
+                    writeNumber(((DoubleWritable) value).get(), bytes, from);
+                }
+                else if (value instanceof FloatWritable) {
+                    writeNumber(((FloatWritable) value).get(), bytes, from);
+                }
+                else {
+                    final String s = value.toString().trim();
+                    if (s.length() > fieldLength) {
+                        throw numberTooWide(s);
+                    }
+                    writeAscii(s, bytes, from, true);
+                }
+                break;
+            case 'L':
+                if (value instanceof BooleanWritable) {
+                    bytes[from] = ((BooleanWritable) value).get() ? (byte) 'T' : (byte) 'F';
+                }
+                else {
+                    final String s = value.toString().trim();
+                    bytes[from] = s.length() == 0 ? (byte) '?' : (byte) Character.toUpperCase(s.charAt(0));
+                }
+                break;
+            default:
+                Arrays.fill(bytes, from, from + fieldLength, (byte) ' ');
+                break;
+        }
+    }
+
+    /**
+     * Encode a C value into charset, left aligned and padded with spaces.
+     * Values too long are cut on a character boundary. Pure ASCII Text
+     * values are copied as is.
+     */
+    private void writeText(final Writable value, final byte[] bytes, final int from) throws IOException {
+        final int to = from + fieldLength;
+        CharBuffer chars;
+        if (value instanceof Text) {
+            final Text text = (Text) value;
+            final byte[] textBytes = text.getBytes();
+            final int length = text.getLength();
+            int i = 0;
+            while (i < length && textBytes[i] >= 0) {
+                i++;
+            }
+            if (i == length && asciiCompatible) {
+                final int n = Math.min(length, fieldLength);
+                System.arraycopy(textBytes, 0, bytes, from, n);
+                Arrays.fill(bytes, from + n, to, (byte) ' ');
+                return;
+            }
+            if (writeDecoder == null) {
+                writeDecoder = UTF8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+            if (writeChars == null || writeChars.capacity() < length) {
+                writeChars = CharBuffer.allocate(Math.max(length, fieldLength));
+            }
+            writeDecoder.reset();
+            writeChars.clear();
+            writeDecoder.decode(ByteBuffer.wrap(textBytes, 0, length), writeChars, true);
+            writeDecoder.flush(writeChars);
+            writeChars.flip();
+            chars = writeChars;
+        }
+        else {
+            chars = CharBuffer.wrap(value.toString());
+        }
+        if (writeEncoder == null || !writeEncoder.charset().equals(charset)) {
+            writeEncoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        final ByteBuffer out = ByteBuffer.wrap(bytes, from, fieldLength);
+        writeEncoder.reset();
+        writeEncoder.encode(chars, out, true); // Stops on overflow without splitting a character
+        writeEncoder.flush(out);
+        Arrays.fill(bytes, out.position(), to, (byte) ' ');
+    }
+
+    /**
+     * Write ASCII characters left aligned, or right aligned for numbers,
+     * padded with spaces.
+     */
+    private void writeAscii(final String value, final byte[] bytes, final int from, final boolean rightAligned) {
+        final int n = Math.min(value.length(), fieldLength);
+        final int start = rightAligned ? from + fieldLength - n : from;
+        Arrays.fill(bytes, from, from + fieldLength, (byte) ' ');
+        for (int i = 0; i < n; i++) {
+            bytes[start + i] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Write YYYYMMDD with the civil_from_days algorithm of Howard Hinnant,
+     * blank for INVALID_DATE or years outside 0 to 9999.
+     */
+    private void writeEpochDay(final int epochDay, final byte[] bytes, final int from) {
+        Arrays.fill(bytes, from, from + fieldLength, (byte) ' ');
+        if (epochDay == INVALID_DATE) {
+            return;
+        }
+        final long z = epochDay + 719468L;
+        final long era = (z >= 0 ? z : z - 146096) / 146097;
+        final long dayOfEra = z - era * 146097;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long mp = (5 * dayOfYear + 2) / 153;
+        final int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        final int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        final long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return;
+        }
+        writeDigits((int) year, 4, bytes, from);
+        writeDigits(month, 2, bytes, from + 4);
+        writeDigits(day, 2, bytes, from + 6);
+    }
+
+    private static void writeDigits(int value, final int digits, final byte[] bytes, final int from) {
+        for (int i = from + digits - 1; i >= from; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private void writeNumber(final long value, final byte[] bytes, final int from) throws IOException {
+        if (decimalCount == 0) {
+            if (!writeScaled(value, bytes, from)) {
+                throw numberTooWide(value);
+            }
+        }
+        else if (decimalCount < MAX_MANTISSA_DIGITS && value > -LONG_POWERS_OF_TEN[MAX_MANTISSA_DIGITS - decimalCount] && value < LONG_POWERS_OF_TEN[MAX_MANTISSA_DIGITS - decimalCount]) {
+            if (!writeScaled(value * LONG_POWERS_OF_TEN[decimalCount], bytes, from)) {
+                throw numberTooWide(value);
+            }
+        }
+        else {
+            writeDecimal(BigDecimal.valueOf(value), bytes, from);
+        }
+    }
+
+    private void writeNumber(final double value, final byte[] bytes, final int from) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            Arrays.fill(bytes, from, from + fieldLength, (byte) ' ');
+            return;
+        }
+        // Below 2^40 the product is within 2^-13 of the exact one, so it
+        // rounds like the exact value unless its fraction is close to 1/2
+        if (decimalCount <= MAX_MANTISSA_DIGITS) {
+            final double scaled = value * POWERS_OF_TEN[decimalCount];
+            if (Math.abs(scaled) < MAX_FAST_SCALED) {
+                final double floor = Math.floor(scaled);
+                final double fraction = scaled - floor;
+                if (Math.abs(fraction - 0.5) > ROUNDING_MARGIN) {
+                    if (!writeScaled((long) floor + (fraction > 0.5 ? 1 : 0), bytes, from)) {
+                        throw numberTooWide(value);
+                    }
+                    return;
+                }
+            }
+        }
+        writeDecimal(new BigDecimal(value), bytes, from);
+    }
+
+    private void writeDecimal(final BigDecimal value, final byte[] bytes, final int from) throws IOException {
+        final String s = value.setScale(decimalCount, RoundingMode.HALF_UP).toPlainString();
+        if (s.length() > fieldLength) {
+            throw numberTooWide(s);
+        }
+        writeAscii(s, bytes, from, true);
+    }
+
+    private IOException numberTooWide(final Object value) {
+        return new IOException("Number " + value + " is too wide for field " + fieldName + " " + (char) dataType + "(" + fieldLength + "," + decimalCount + ")");
+    }
+
+    /**
+     * Write value / 10^decimalCount right aligned, digits written from the
+     * right on the negative magnitude so that Long.MIN_VALUE needs no
+     * special case. Return false, the field being left partly written, if
+     * the value is too wide for the field.
+     */
+    private boolean writeScaled(final long value, final byte[] bytes, final int from) {
+        long m = value < 0 ? value : -value;
+        int i = from + fieldLength;
+        int digits = 0;
+        do {
+            if (decimalCount > 0 && digits == decimalCount) {
+                if (i == from) {
+                    return false;
+                }
+                bytes[--i] = '.';
+            }
+            if (i == from) {
+                return false;
+            }
+            bytes[--i] = (byte) ('0' - m % 10);
+            m /= 10;
+            digits++;
+        }
+        while (m != 0 || digits <= decimalCount);
+        if (value < 0) {
+            if (i == from) {
+                return false;
+            }
+            bytes[--i] = '-';
+        }
+        Arrays.fill(bytes, from, i, (byte) ' ');
+        return true;
     }
 
     @Override
@@ -10,11 +10,17 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.InputSplit;
 
 /**
+ * A DBFFileSplit is serialized with a fingerprint of the header of its file
+ * instead of the header itself. The task reads the header again from the
+ * file, sharing it between the splits of the same file read by a JVM, and
+ * checks it against the fingerprint.
+ *
  * @author FanRong
  *
  * $LastChangedDate: 2014-12-11 13:48:05 +0800 (周四, 11 十二?2014) $
@@ -28,6 +34,7 @@ public class DBFFileSplit extends InputSplit implements org.apache.hadoop.mapred
     private long length;
     private String hosts[];
     private DBFHeader header;
+    private long fingerprint;
 
     DBFFileSplit() {
     }
@@ -45,6 +52,7 @@ public class DBFFileSplit extends InputSplit implements org.apache.hadoop.mapred
         this.length = length;
         this.hosts = hosts;
         this.header = header;
+        this.fingerprint = header == null ? 0 : header.getFingerprint();
     }
 
     public Path getPath() {
@@ -59,10 +67,32 @@ public class DBFFileSplit extends InputSplit implements org.apache.hadoop.mapred
         return length;
     }
 
+    /**
+     * Return the header of the file, null for a deserialized split until
+     * getHeader(JobConf) resolved it.
+     */
     public DBFHeader getHeader() {
         return header;
     }
 
+    /**
+     * Return the header of the file, reading it from the file if this split
+     * was deserialized.
+     * @throws IOException if the header does not match the fingerprint of
+     * the header the split was planned with
+     */
+    public DBFHeader getHeader(final JobConf conf) throws IOException {
+        if (header == null) {
+            final FileStatus status = file.getFileSystem(conf).getFileStatus(file);
+            final DBFHeader read = DBFInputFormat.readHeader(conf, status);
+            if (read == null || read.getFingerprint() != fingerprint) {
+                throw new IOException("The header of " + file + " changed since the splits were planned");
+            }
+            header = read;
+        }
+        return header;
+    }
+
     public String toString() {
         return (new StringBuilder()).append(file).append(":").append(start).append("+").append(length).toString();
     }
@@ -71,7 +101,7 @@ public class DBFFileSplit extends InputSplit implements org.apache.hadoop.mapred
         out.writeUTF(file.toString());
         out.writeLong(start);
         out.writeLong(length);
-        header.write(out);
+        out.writeLong(fingerprint);
     }
 
     public void readFields(DataInput in) throws IOException {
@@ -79,8 +109,8 @@ public class DBFFileSplit extends InputSplit implements org.apache.hadoop.mapred
         start = in.readLong();
         length = in.readLong();
         hosts = null;
-        header = new DBFHeader();
-        header.readFields(in);
+        fingerprint = in.readLong();
+        header = null;
     }
 
     public String[] getLocations() throws IOException {
@@ -0,0 +1,767 @@
+/**
+ * @file	DBFFilter.java
+ */
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * DBFFilter is a record filter evaluated against the raw bytes of a record,
+ * before any field is decoded. A filter is built from an expression such as
+ * <BR><BR>
+ *
+ * ADMIN_CODE = '310000' AND (SPEED_CLASS &lt; 4 OR ROAD_TYPE IN ('A', 'B'))<BR><BR>
+ *
+ * The supported operators are =, !=, &lt;&gt;, &lt;, &lt;=, &gt;, &gt;=, IN,
+ * AND and OR, with parentheses for grouping. Field names are resolved once
+ * against the DBFHeader and are case insensitive. <BR>
+ * C fields are compared on their trimmed bytes, encoded in the charset the
+ * fields have when compiling, N and F fields numerically, D fields on their
+ * YYYYMMDD digits (a blank date is lower than any date) and L fields on
+ * their logical value with = and != only. <BR><BR>
+ *
+ * mayMatch() tells from DBFColumnStatistics of the fields over a range of
+ * records whether any of them can be accepted, so that ranges which cannot
+ * match are skipped without being read.
+ *
+ * @see    DBFColumnStatistics
+ */
+public class DBFFilter {
+    private final Node m_root;
+
+    private DBFFilter(final Node root) {
+        m_root = root;
+    }
+
+    /**
+     * Parse the expression and bind its fields to the given header.
+     *
+     * @throws IOException if the expression is invalid or refers to an
+     *         unknown or unsupported field
+     */
+    public static DBFFilter compile(final String expression, final DBFHeader header) throws IOException {
+        final Parser parser = new Parser(expression, header);
+        final Node root = parser.parseOr();
+        if (parser.peek() != null) {
+            throw parser.error("unexpected " + parser.peek());
+        }
+        return new DBFFilter(root);
+    }
+
+    /**
+     * Evaluate the filter on a record buffer as returned by
+     * DBFReader.getRecordBuffer().
+     */
+    public boolean accept(final byte[] record) throws IOException {
+        return m_root.accept(record, 0);
+    }
+
+    /**
+     * Evaluate the filter on the record starting at offset from of a buffer
+     * holding several records.
+     */
+    public boolean accept(final byte[] bytes, final int from) throws IOException {
+        return m_root.accept(bytes, from);
+    }
+
+    /**
+     * Return false if no record having field i in the range of statistics[i]
+     * can be accepted. Fields without statistics, null or out of bounds, can
+     * have any value.
+     */
+    public boolean mayMatch(final DBFColumnStatistics[] statistics) {
+        return m_root.mayMatch(statistics);
+    }
+
+    /**
+     * Return the indexes of the fields the filter reads, in increasing order.
+     */
+    public int[] getFieldIndexes() {
+        final Set<Integer> indexes = new TreeSet<Integer>();
+        m_root.addFieldIndexes(indexes);
+        final int[] result = new int[indexes.size()];
+        int i = 0;
+        for (final Integer index : indexes) {
+            result[i++] = index;
+        }
+        return result;
+    }
+
+    private static final int EQ = 0, NE = 1, LT = 2, LE = 3, GT = 4, GE = 5;
+
+    private static abstract class Node {
+        abstract boolean accept(byte[] bytes, int from) throws IOException;
+
+        abstract boolean mayMatch(DBFColumnStatistics[] statistics);
+
+        abstract void addFieldIndexes(Set<Integer> indexes);
+    }
+
+    private static class Or extends Node {
+        private final Node[] m_nodes;
+
+        Or(final List<Node> nodes) {
+            m_nodes = nodes.toArray(new Node[nodes.size()]);
+        }
+
+        @Override
+        boolean accept(final byte[] bytes, final int from) throws IOException {
+            for (final Node node : m_nodes) {
+                if (node.accept(bytes, from)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        boolean mayMatch(final DBFColumnStatistics[] statistics) {
+            for (final Node node : m_nodes) {
+                if (node.mayMatch(statistics)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void addFieldIndexes(final Set<Integer> indexes) {
+            for (final Node node : m_nodes) {
+                node.addFieldIndexes(indexes);
+            }
+        }
+    }
+
+    private static class And extends Node {
+        private final Node[] m_nodes;
+
+        And(final List<Node> nodes) {
+            m_nodes = nodes.toArray(new Node[nodes.size()]);
+        }
+
+        @Override
+        boolean accept(final byte[] bytes, final int from) throws IOException {
+            for (final Node node : m_nodes) {
+                if (!node.accept(bytes, from)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        boolean mayMatch(final DBFColumnStatistics[] statistics) {
+            for (final Node node : m_nodes) {
+                if (!node.mayMatch(statistics)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void addFieldIndexes(final Set<Integer> indexes) {
+            for (final Node node : m_nodes) {
+                node.addFieldIndexes(indexes);
+            }
+        }
+    }
+
+    /**
+     * Compare a field with one or more literals, matching if any of them
+     * satisfies the operator. IN is an EQ comparison with several literals.
+     */
+    private static abstract class Compare extends Node {
+        protected final int m_index;
+        protected final DBFField m_field;
+        protected final int m_op;
+
+        Compare(final int index, final DBFField field, final int op) {
+            m_index = index;
+            m_field = field;
+            m_op = op;
+        }
+
+        @Override
+        boolean mayMatch(final DBFColumnStatistics[] statistics) {
+            final DBFColumnStatistics fieldStatistics = m_index < statistics.length ? statistics[m_index] : null;
+            if (fieldStatistics == null) {
+                return true;
+            }
+            if (fieldStatistics.getCount() == 0) {
+                return false;
+            }
+            return fieldStatistics.getNullCount() > 0 || !fieldStatistics.hasRange() || mayMatch(fieldStatistics);
+        }
+
+        /**
+         * Return false if no value in the range of the statistics, which
+         * has no null value, can match.
+         */
+        abstract boolean mayMatch(DBFColumnStatistics fieldStatistics);
+
+        /**
+         * Return whether a value in a range can match a literal, given the
+         * comparisons of the minimum and of the maximum with the literal.
+         */
+        protected boolean rangeMatches(final int cmpMin, final int cmpMax) {
+            switch (m_op) {
+                case EQ:
+                    return cmpMin <= 0 && cmpMax >= 0;
+                case NE:
+                    return cmpMin != 0 || cmpMax != 0;
+                case LT:
+                    return cmpMin < 0;
+                case LE:
+                    return cmpMin <= 0;
+                case GT:
+                    return cmpMax > 0;
+                default:
+                    return cmpMax >= 0;
+            }
+        }
+
+        @Override
+        void addFieldIndexes(final Set<Integer> indexes) {
+            indexes.add(m_index);
+        }
+
+        protected boolean matches(final int cmp) {
+            switch (m_op) {
+                case EQ:
+                    return cmp == 0;
+                case NE:
+                    return cmp != 0;
+                case LT:
+                    return cmp < 0;
+                case LE:
+                    return cmp <= 0;
+                case GT:
+                    return cmp > 0;
+                default:
+                    return cmp >= 0;
+            }
+        }
+    }
+
+    /**
+     * Byte comparison of the field trimmed of blanks as readText() trims
+     * them, for C and D fields.
+     * The epoch days of the literals of D fields are kept for their
+     * statistics, where blank dates are INVALID_DATE, lower than any date,
+     * and a literal of an invalid date such as 20261399 may match any range.
+     */
+    private static class BytesCompare extends Compare {
+        private final byte[][] m_values;
+        private final int[] m_days;
+
+        BytesCompare(final int index, final DBFField field, final int op, final byte[][] values, final int[] days) {
+            super(index, field, op);
+            m_values = values;
+            m_days = days;
+        }
+
+        @Override
+        boolean mayMatch(final DBFColumnStatistics fieldStatistics) {
+            if (fieldStatistics.getKind() == DBFColumnStatistics.BYTES) {
+                for (final byte[] value : m_values) {
+                    final byte[] min = fieldStatistics.getMinBytes();
+                    final byte[] max = fieldStatistics.getMaxBytes();
+                    if (rangeMatches(compareBytes(min, 0, min.length, value), compareBytes(max, 0, max.length, value))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (m_days == null || fieldStatistics.getKind() != DBFColumnStatistics.LONG) {
+                return true;
+            }
+            for (final int day : m_days) {
+                if (day == DBFField.INVALID_DATE
+                        || rangeMatches(Long.signum(fieldStatistics.getMinLong() - day), Long.signum(fieldStatistics.getMaxLong() - day))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        boolean accept(final byte[] bytes, final int recordFrom) {
+            final int to = DBFField.trimTrailingBlanks(bytes, recordFrom + m_field.offset, recordFrom + m_field.offset + m_field.fieldLength);
+            final int from = DBFField.trimLeadingBlanks(bytes, recordFrom + m_field.offset, to);
+            for (final byte[] value : m_values) {
+                if (matches(compareBytes(bytes, from, to, value))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static int compareBytes(final byte[] bytes, final int from, final int to, final byte[] value) {
+            final int length = to - from;
+            final int n = Math.min(length, value.length);
+            for (int i = 0; i < n; i++) {
+                final int cmp = (bytes[from + i] & 0xFF) - (value[i] & 0xFF);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return length - value.length;
+        }
+    }
+
+    /**
+     * Integer comparison, for N fields without decimals.
+     */
+    private static class LongCompare extends Compare {
+        private final long[] m_values;
+
+        LongCompare(final int index, final DBFField field, final int op, final long[] values) {
+            super(index, field, op);
+            m_values = values;
+        }
+
+        @Override
+        boolean mayMatch(final DBFColumnStatistics fieldStatistics) {
+            if (fieldStatistics.getKind() != DBFColumnStatistics.LONG) {
+                return true;
+            }
+            final long min = fieldStatistics.getMinLong();
+            final long max = fieldStatistics.getMaxLong();
+            for (final long value : m_values) {
+                if (rangeMatches(min < value ? -1 : (min == value ? 0 : 1), max < value ? -1 : (max == value ? 0 : 1))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        boolean accept(final byte[] bytes, final int from) throws IOException {
+            final long fieldValue = m_field.readLong(bytes, from + m_field.offset);
+            for (final long value : m_values) {
+                if (matches(fieldValue < value ? -1 : (fieldValue == value ? 0 : 1))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Floating point comparison, for F fields and N fields with decimals.
+     */
+    private static class DoubleCompare extends Compare {
+        private final double[] m_values;
+
+        DoubleCompare(final int index, final DBFField field, final int op, final double[] values) {
+            super(index, field, op);
+            m_values = values;
+        }
+
+        @Override
+        boolean mayMatch(final DBFColumnStatistics fieldStatistics) {
+            final double min = fieldStatistics.getMinDouble();
+            final double max = fieldStatistics.getMaxDouble();
+            for (final double value : m_values) {
+                if (rangeMatches(Double.compare(min, value), Double.compare(max, value))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        boolean accept(final byte[] bytes, final int from) throws IOException {
+            final double fieldValue = m_field.readDouble(bytes, from + m_field.offset);
+            for (final double value : m_values) {
+                if (matches(Double.compare(fieldValue, value))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class LogicalCompare extends Compare {
+        private final boolean[] m_values;
+
+        LogicalCompare(final int index, final DBFField field, final int op, final boolean[] values) {
+            super(index, field, op);
+            m_values = values;
+        }
+
+        @Override
+        boolean mayMatch(final DBFColumnStatistics fieldStatistics) {
+            if (fieldStatistics.getKind() != DBFColumnStatistics.LONG) {
+                return true;
+            }
+            for (final boolean value : m_values) {
+                final long v = value ? 1 : 0;
+                if (rangeMatches(Long.signum(fieldStatistics.getMinLong() - v), Long.signum(fieldStatistics.getMaxLong() - v))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        boolean accept(final byte[] bytes, final int from) throws IOException {
+            final boolean fieldValue = m_field.readLogical(bytes, from + m_field.offset);
+            for (final boolean value : m_values) {
+                if (matches(fieldValue == value ? 0 : 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Recursive descent parser of filter expressions, tokens are either
+     * String (identifiers, operators and punctuation), Quoted literals or
+     * Numeric literals.
+     */
+    private static class Parser {
+        private final String m_expression;
+        private final DBFHeader m_header;
+        private final List<Object> m_tokens = new ArrayList<Object>();
+        private int m_index;
+
+        Parser(final String expression, final DBFHeader header) throws IOException {
+            m_expression = expression;
+            m_header = header;
+            tokenize();
+        }
+
+        private static class Quoted {
+            final String value;
+
+            Quoted(final String value) {
+                this.value = value;
+            }
+
+            @Override
+            public String toString() {
+                return "'" + value + "'";
+            }
+        }
+
+        private static class Numeric {
+            final String value;
+
+            Numeric(final String value) {
+                this.value = value.startsWith("+") ? value.substring(1) : value;
+            }
+
+            @Override
+            public String toString() {
+                return value;
+            }
+        }
+
+        private void tokenize() throws IOException {
+            final String s = m_expression;
+            int i = 0;
+            while (i < s.length()) {
+                final char c = s.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                }
+                else if (c == '\'') {
+                    final StringBuilder sb = new StringBuilder();
+                    i++;
+                    while (true) {
+                        if (i >= s.length()) {
+                            throw error("unterminated string");
+                        }
+                        final char q = s.charAt(i++);
+                        if (q == '\'') {
+                            if (i < s.length() && s.charAt(i) == '\'') {
+                                sb.append('\'');
+                                i++;
+                                continue;
+                            }
+                            break;
+                        }
+                        sb.append(q);
+                    }
+                    m_tokens.add(new Quoted(sb.toString()));
+                }
+                else if (Character.isDigit(c) || c == '-' || c == '+' || c == '.') {
+                    int j = i + 1;
+                    while (j < s.length() && (Character.isDigit(s.charAt(j)) || s.charAt(j) == '.' || s.charAt(j) == 'e' || s.charAt(j) == 'E'
+                            || ((s.charAt(j) == '-' || s.charAt(j) == '+') && (s.charAt(j - 1) == 'e' || s.charAt(j - 1) == 'E')))) {
+                        j++;
+                    }
+                    final String number = s.substring(i, j);
+                    try {
+                        Double.parseDouble(number);
+                    }
+                    catch (NumberFormatException e) {
+                        throw error("invalid number " + number);
+                    }
+                    m_tokens.add(new Numeric(number));
+                    i = j;
+                }
+                else if (Character.isLetter(c) || c == '_') {
+                    int j = i + 1;
+                    while (j < s.length() && (Character.isLetterOrDigit(s.charAt(j)) || s.charAt(j) == '_')) {
+                        j++;
+                    }
+                    m_tokens.add(s.substring(i, j));
+                    i = j;
+                }
+                else if (c == '<' || c == '>' || c == '!') {
+                    if (i + 1 < s.length() && (s.charAt(i + 1) == '=' || (c == '<' && s.charAt(i + 1) == '>'))) {
+                        m_tokens.add(s.substring(i, i + 2));
+                        i += 2;
+                    }
+                    else if (c == '!') {
+                        throw error("unexpected !");
+                    }
+                    else {
+                        m_tokens.add(String.valueOf(c));
+                        i++;
+                    }
+                }
+                else if (c == '=' || c == '(' || c == ')' || c == ',') {
+                    m_tokens.add(String.valueOf(c));
+                    i++;
+                }
+                else {
+                    throw error("unexpected character " + c);
+                }
+            }
+        }
+
+        IOException error(final String message) {
+            return new IOException("Invalid DBF filter [" + m_expression + "]: " + message);
+        }
+
+        Object peek() {
+            return m_index < m_tokens.size() ? m_tokens.get(m_index) : null;
+        }
+
+        private Object next() throws IOException {
+            if (m_index >= m_tokens.size()) {
+                throw error("unexpected end");
+            }
+            return m_tokens.get(m_index++);
+        }
+
+        private boolean accept(final String keyword) {
+            final Object token = peek();
+            if (token instanceof String && ((String) token).equalsIgnoreCase(keyword)) {
+                m_index++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(final String keyword) throws IOException {
+            if (!accept(keyword)) {
+                throw error("expected " + keyword + " but found " + peek());
+            }
+        }
+
+        Node parseOr() throws IOException {
+            final List<Node> nodes = new ArrayList<Node>();
+            nodes.add(parseAnd());
+            while (accept("OR")) {
+                nodes.add(parseAnd());
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new Or(nodes);
+        }
+
+        private Node parseAnd() throws IOException {
+            final List<Node> nodes = new ArrayList<Node>();
+            nodes.add(parsePrimary());
+            while (accept("AND")) {
+                nodes.add(parsePrimary());
+            }
+            return nodes.size() == 1 ? nodes.get(0) : new And(nodes);
+        }
+
+        private Node parsePrimary() throws IOException {
+            if (accept("(")) {
+                final Node node = parseOr();
+                expect(")");
+                return node;
+            }
+            final Object name = next();
+            if (!(name instanceof String) || !Character.isLetter(((String) name).charAt(0)) && ((String) name).charAt(0) != '_') {
+                throw error("expected a field name but found " + name);
+            }
+            final int index = m_header.getFieldIndex((String) name);
+            if (index < 0) {
+                throw error("unknown field " + name);
+            }
+            final DBFField field = m_header.getField(index);
+
+            final int op;
+            final List<Object> literals = new ArrayList<Object>();
+            if (accept("IN")) {
+                op = EQ;
+                expect("(");
+                do {
+                    literals.add(nextLiteral());
+                }
+                while (accept(","));
+                expect(")");
+            }
+            else {
+                op = parseOperator();
+                literals.add(nextLiteral());
+            }
+            return bind(index, field, op, literals);
+        }
+
+        private int parseOperator() throws IOException {
+            final Object token = next();
+            if ("=".equals(token)) {
+                return EQ;
+            }
+            if ("!=".equals(token) || "<>".equals(token)) {
+                return NE;
+            }
+            if ("<".equals(token)) {
+                return LT;
+            }
+            if ("<=".equals(token)) {
+                return LE;
+            }
+            if (">".equals(token)) {
+                return GT;
+            }
+            if (">=".equals(token)) {
+                return GE;
+            }
+            throw error("expected a comparison operator but found " + token);
+        }
+
+        /**
+         * Return a Quoted, a Numeric or a Boolean literal.
+         */
+        private Object nextLiteral() throws IOException {
+            final Object token = next();
+            if (token instanceof Quoted || token instanceof Numeric) {
+                return token;
+            }
+            if ("TRUE".equalsIgnoreCase(String.valueOf(token))) {
+                return Boolean.TRUE;
+            }
+            if ("FALSE".equalsIgnoreCase(String.valueOf(token))) {
+                return Boolean.FALSE;
+            }
+            throw error("expected a literal but found " + token);
+        }
+
+        private Node bind(final int index, final DBFField field, final int op, final List<Object> literals) throws IOException {
+            final int n = literals.size();
+            switch (field.dataType) {
+                case 'C': {
+                    final byte[][] values = new byte[n][];
+                    for (int i = 0; i < n; i++) {
+                        values[i] = text(literals.get(i)).trim().getBytes(field.getCharset());
+                    }
+                    return new BytesCompare(index, field, op, values, null);
+                }
+                case 'D': {
+                    final byte[][] values = new byte[n][];
+                    final int[] days = new int[n];
+                    for (int i = 0; i < n; i++) {
+                        final String date = text(literals.get(i)).trim().replace("-", "");
+                        if (date.length() != 8 || !isDigits(date)) {
+                            throw error("invalid date " + literals.get(i) + " for field " + field.fieldName);
+                        }
+                        values[i] = date.getBytes("US-ASCII");
+                        days[i] = field.readEpochDay(values[i], 0);
+                    }
+                    return new BytesCompare(index, field, op, values, days);
+                }
+                case 'N':
+                case 'F': {
+                    boolean integral = field.dataType == 'N' && field.decimalCount == 0;
+                    for (int i = 0; i < n && integral; i++) {
+                        integral = isDigits(number(field, literals.get(i)));
+                    }
+                    if (integral) {
+                        final long[] values = new long[n];
+                        for (int i = 0; i < n; i++) {
+                            final String number = number(field, literals.get(i));
+                            try {
+                                values[i] = Long.parseLong(number);
+                            }
+                            catch (NumberFormatException e) {
+                                throw error("number " + number + " out of range for field " + field.fieldName);
+                            }
+                        }
+                        return new LongCompare(index, field, op, values);
+                    }
+                    final double[] values = new double[n];
+                    for (int i = 0; i < n; i++) {
+                        values[i] = Double.parseDouble(number(field, literals.get(i)));
+                    }
+                    return new DoubleCompare(index, field, op, values);
+                }
+                case 'L': {
+                    if (op != EQ && op != NE) {
+                        throw error("logical field " + field.fieldName + " only supports = and !=");
+                    }
+                    final boolean[] values = new boolean[n];
+                    for (int i = 0; i < n; i++) {
+                        final Object literal = literals.get(i);
+                        if (literal instanceof Boolean) {
+                            values[i] = (Boolean) literal;
+                        }
+                        else {
+                            final String s = text(literal).trim();
+                            if (s.length() != 1 || "TtYyFfNn".indexOf(s.charAt(0)) < 0) {
+                                throw error("invalid logical " + literal + " for field " + field.fieldName);
+                            }
+                            values[i] = "TtYy".indexOf(s.charAt(0)) >= 0;
+                        }
+                    }
+                    return new LogicalCompare(index, field, op, values);
+                }
+                default:
+                    throw error("field " + field.fieldName + " of type " + (char) field.dataType + " cannot be filtered");
+            }
+        }
+
+        private String text(final Object literal) throws IOException {
+            if (literal instanceof Quoted) {
+                return ((Quoted) literal).value;
+            }
+            if (literal instanceof Numeric) {
+                return ((Numeric) literal).value;
+            }
+            throw error("unexpected literal " + literal);
+        }
+
+        private String number(final DBFField field, final Object literal) throws IOException {
+            if (literal instanceof Numeric) {
+                return ((Numeric) literal).value;
+            }
+            throw error("invalid number " + literal + " for field " + field.fieldName);
+        }
+
+        private static boolean isDigits(final String s) {
+            final int start = s.startsWith("-") ? 1 : 0;
+            if (s.length() == start) {
+                return false;
+            }
+            for (int i = start; i < s.length(); i++) {
+                if (!Character.isDigit(s.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
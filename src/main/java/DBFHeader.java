@@ -10,10 +10,14 @@ import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
 
 import org.apache.commons.io.EndianUtils;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Writable;
 
 /**
@@ -72,6 +76,62 @@ public class DBFHeader implements Writable {
             header.fields.add(field);
         }
         header.numberOfFields = header.fields.size();
+        header.computeFieldOffsets();
+        return header;
+    }
+
+    /**
+     * Compute the offset of each field inside a record. The first byte of
+     * a record is the deleted flag, so the first field starts at 1.
+     */
+    private void computeFieldOffsets() {
+        int offset = 1;
+        for (final DBFField field : fields) {
+            field.offset = offset;
+            offset += field.fieldLength;
+        }
+    }
+
+    /**
+     * Return a 64 bit FNV-1a hash of the layout of the records and of the
+     * field descriptors, used to check that a header read again from a file
+     * is the one the splits were planned with.
+     */
+    public long getFingerprint() {
+        long h = 0xCBF29CE484222325L;
+        h = fingerprint(h, numberOfRecords);
+        h = fingerprint(h, headerLength);
+        h = fingerprint(h, recordLength);
+        h = fingerprint(h, numberOfFields);
+        for (final DBFField field : fields) {
+            for (int i = 0; i < field.fieldName.length(); i++) {
+                h = fingerprint(h, field.fieldName.charAt(i));
+            }
+            h = fingerprint(h, field.dataType);
+            h = fingerprint(h, field.fieldLength);
+            h = fingerprint(h, field.decimalCount);
+        }
+        return h;
+    }
+
+    private static long fingerprint(long h, final int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            h = (h ^ ((value >>> shift) & 0xFF)) * 0x100000001B3L;
+        }
+        return h;
+    }
+
+    /**
+     * Return a copy of this header with fields of their own, without the
+     * charset, date and dictionary settings of the fields.
+     */
+    public DBFHeader copy() throws IOException {
+        final DataOutputBuffer out = new DataOutputBuffer();
+        write(out);
+        final DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        final DBFHeader header = new DBFHeader();
+        header.readFields(in);
         return header;
     }
 
@@ -87,6 +147,170 @@ public class DBFHeader implements Writable {
         return fields.get(i);
     }
 
+    /**
+     * Return the index of the field with the given name, ignoring case as
+     * dBase does, or -1 if there is no such field.
+     */
+    public int getFieldIndex(final String fieldName) {
+        for (int i = 0; i < numberOfFields; i++) {
+            if (fields.get(i).fieldName.equalsIgnoreCase(fieldName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the charset of the language driver id at byte 29, or the
+     * given default one if the id is unknown or not set.
+     */
+    public Charset getLanguageDriverCharset(final Charset defaultCharset) {
+        final String name;
+        switch (languageDriver & 0xFF) {
+            case 0x01:
+                name = "IBM437";
+                break;
+            case 0x02:
+                name = "IBM850";
+                break;
+            case 0x03:
+            case 0x57:
+            case 0x58:
+            case 0x59:
+                name = "windows-1252";
+                break;
+            case 0x13:
+            case 0x7B:
+                name = "windows-31j";
+                break;
+            case 0x26:
+            case 0x65:
+                name = "IBM866";
+                break;
+            case 0x4D:
+            case 0x7A:
+                name = "GBK";
+                break;
+            case 0x4E:
+            case 0x79:
+                name = "x-windows-949";
+                break;
+            case 0x4F:
+            case 0x78:
+                name = "Big5";
+                break;
+            case 0x64:
+                name = "IBM852";
+                break;
+            case 0x7C:
+                name = "x-windows-874";
+                break;
+            case 0x7D:
+                name = "windows-1255";
+                break;
+            case 0x7E:
+                name = "windows-1256";
+                break;
+            case 0xC8:
+                name = "windows-1250";
+                break;
+            case 0xC9:
+                name = "windows-1251";
+                break;
+            case 0xCA:
+                name = "windows-1254";
+                break;
+            case 0xCB:
+                name = "windows-1253";
+                break;
+            default:
+                return defaultCharset;
+        }
+        return Charset.isSupported(name) ? Charset.forName(name) : defaultCharset;
+    }
+
+    /**
+     * Return the first language driver id of the charset, or 0 if there is
+     * none.
+     */
+    public static byte getLanguageDriver(final Charset charset) {
+        final DBFHeader header = new DBFHeader();
+        for (int id = 1; id < 0x100; id++) {
+            header.languageDriver = (byte) id;
+            if (charset.equals(header.getLanguageDriverCharset(null))) {
+                return (byte) id;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Create the header of a dBase III file without records with the given
+     * fields, C fields being encoded with charset.
+     */
+    public static DBFHeader create(final List<DBFField> fields, final Charset charset) {
+        final DBFHeader header = new DBFHeader();
+        final Calendar today = Calendar.getInstance();
+        header.signature = 0x03;
+        header.year = (byte) (today.get(Calendar.YEAR) - 1900);
+        header.month = (byte) (today.get(Calendar.MONTH) + 1);
+        header.day = (byte) today.get(Calendar.DAY_OF_MONTH);
+        header.fields = new ArrayList<DBFField>(fields);
+        header.numberOfFields = fields.size();
+        int recordLength = 1;
+        for (final DBFField field : fields) {
+            recordLength += field.fieldLength;
+        }
+        if (recordLength > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Records of " + recordLength + " bytes are too long");
+        }
+        header.headerLength = (short) (32 + 32 * fields.size() + 1);
+        header.recordLength = (short) recordLength;
+        header.languageDriver = getLanguageDriver(charset);
+        header.computeFieldOffsets();
+        header.setCharset(charset);
+        return header;
+    }
+
+    /**
+     * Write this header as found at the start of a DBF file, followed by the
+     * field terminator and padded to headerLength.
+     */
+    public void writeTo(final DataOutput out) throws IOException {
+        out.writeByte(signature); /* 0     */
+        out.writeByte(year); /* 1     */
+        out.writeByte(month); /* 2     */
+        out.writeByte(day); /* 3     */
+        out.writeInt(Integer.reverseBytes(numberOfRecords)); /* 4-7   */
+        out.writeShort(Short.reverseBytes(headerLength)); /* 8-9   */
+        out.writeShort(Short.reverseBytes(recordLength)); /* 10-11 */
+        out.writeShort(reserved1); /* 12-13 */
+        out.writeByte(incompleteTransaction); /* 14    */
+        out.writeByte(encryptionFlag); /* 15    */
+        out.writeInt(freeRecordThread); /* 16-19 */
+        out.writeInt(reserved2); /* 20-23 */
+        out.writeInt(reserved3); /* 24-27 */
+        out.writeByte(mdxFlag); /* 28    */
+        out.writeByte(languageDriver); /* 29    */
+        out.writeShort(reserved4); /* 30-31 */
+        for (final DBFField field : fields) {
+            field.writeTo(out);
+        }
+        out.writeByte(DBFField.TERMINATOR);
+        for (int i = 32 + 32 * fields.size() + 1; i < headerLength; i++) {
+            out.writeByte(0);
+        }
+    }
+
+    /**
+     * Set the charset used to decode the C fields.
+     */
+    public void setCharset(final Charset charset) {
+        for (final DBFField field : fields) {
+            field.setCharset(charset);
+        }
+    }
+
     @Override
     public String toString() {
         return "DBFHeader [signature=" + signature + ", year=" + year + ", month=" + month + ", day=" + day + ", numberOfRecords=" + numberOfRecords + ", headerLength=" + headerLength
@@ -122,6 +346,7 @@ public class DBFHeader implements Writable {
             field.readFields(in);
             fields.add(field);
         }
+        computeFieldOffsets();
     }
 
     @Override
@@ -0,0 +1,135 @@
+/**
+ * @file	DBFIndexer.java
+ */
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * DBFIndexer is a map only job building the DBFRecordIndex of each DBF
+ * file of its input paths, one file per map task, and its DBFZoneMap when
+ * -zonemap gives fields, those a file does not have being ignored. Indexes
+ * and zone maps which are current, holding the fields for a zone map, are
+ * skipped unless -force is given. <BR><BR>
+ *
+ * hadoop jar [jar] DBFIndexer [-block records] [-zonemap field,...] [-force] path...<BR><BR>
+ *
+ * @see    DBFRecordIndex
+ * @see    DBFZoneMap
+ */
+public class DBFIndexer extends Configured implements Tool {
+
+    public static final String BLOCK_RECORDS = "mapreduce.DBFIndexer.block.records";
+    public static final String ZONE_MAP_FIELDS = "mapreduce.DBFIndexer.zonemap.fields";
+    public static final String FORCE = "mapreduce.DBFIndexer.force";
+
+    /**
+     * Index the DBF file named by each line of the input.
+     */
+    public static class IndexMapper extends MapReduceBase implements Mapper<LongWritable, Text, NullWritable, NullWritable> {
+        private JobConf m_job;
+
+        @Override
+        public void configure(final JobConf job) {
+            m_job = job;
+        }
+
+        @Override
+        public void map(final LongWritable key, final Text value, final OutputCollector<NullWritable, NullWritable> output, final Reporter reporter) throws IOException {
+            final Path path = new Path(value.toString());
+            final FileSystem fs = path.getFileSystem(m_job);
+            final FileStatus file = fs.getFileStatus(path);
+            final boolean force = m_job.getBoolean(FORCE, false);
+            if (force || DBFRecordIndex.open(fs, file) == null) {
+                reporter.setStatus("Indexing " + path);
+                DBFRecordIndex.build(m_job, file, m_job.getInt(BLOCK_RECORDS, DBFRecordIndex.DEFAULT_BLOCK_RECORDS), reporter);
+            }
+            final String[] fieldNames = m_job.getStrings(ZONE_MAP_FIELDS);
+            if (fieldNames != null && (force || !isZoneMapCurrent(m_job, fs, file, fieldNames))) {
+                reporter.setStatus("Building the zone map of " + path);
+                DBFZoneMap.build(m_job, file, fieldNames, m_job.getInt(BLOCK_RECORDS, DBFZoneMap.DEFAULT_BLOCK_RECORDS), reporter);
+            }
+        }
+    }
+
+    /**
+     * Return true if the zone map of a file is current and has those of the
+     * fields the file has, or if the file has none of them.
+     */
+    static boolean isZoneMapCurrent(final JobConf job, final FileSystem fs, final FileStatus file, final String[] fieldNames) throws IOException {
+        final int[] fieldIndexes = DBFZoneMap.getFieldIndexes(DBFInputFormat.readHeader(job, file), fieldNames);
+        if (fieldIndexes.length == 0) {
+            return true;
+        }
+        final DBFZoneMap zoneMap = DBFZoneMap.open(fs, file);
+        return zoneMap != null && zoneMap.hasFields(fieldIndexes);
+    }
+
+    @Override
+    public int run(final String[] args) throws Exception {
+        final JobConf job = new JobConf(getConf(), DBFIndexer.class);
+        boolean force = false;
+        final List<Path> inputs = new ArrayList<Path>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-block".equals(args[i]) && i + 1 < args.length) {
+                job.setInt(BLOCK_RECORDS, Integer.parseInt(args[++i]));
+            }
+            else if ("-zonemap".equals(args[i]) && i + 1 < args.length) {
+                job.set(ZONE_MAP_FIELDS, args[++i]);
+            }
+            else if ("-force".equals(args[i])) {
+                force = true;
+            }
+            else {
+                inputs.add(new Path(args[i]));
+            }
+        }
+        if (inputs.isEmpty()) {
+            System.err.println("Usage: DBFIndexer [-block records] [-zonemap field,...] [-force] path...");
+            ToolRunner.printGenericCommandUsage(System.err);
+            return 2;
+        }
+
+        job.setBoolean(FORCE, force);
+        final String[] fieldNames = job.getStrings(ZONE_MAP_FIELDS);
+        FileInputFormat.setInputPaths(job, inputs.toArray(new Path[inputs.size()]));
+        final List<FileStatus> files = new ArrayList<FileStatus>();
+        for (final FileStatus file : new DBFInputFormat().listStatus(job)) {
+            final FileSystem fs = file.getPath().getFileSystem(job);
+            if (file.getLen() > 0
+                    && (force || DBFRecordIndex.open(fs, file) == null || (fieldNames != null && !isZoneMapCurrent(job, fs, file, fieldNames)))) {
+                files.add(file);
+            }
+        }
+        if (files.isEmpty()) {
+            System.out.println("All the indexes are current");
+            return 0;
+        }
+
+        job.setJobName("DBF indexing of " + files.size() + " files");
+        job.setMapperClass(IndexMapper.class);
+        return DBFColumnarConverter.runFileJob(job, files) ? 0 : 1;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        System.exit(ToolRunner.run(new DBFIndexer(), args));
+    }
+}
@@ -1,13 +1,31 @@
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
@@ -26,6 +44,76 @@ import org.apache.hadoop.net.NetworkTopology;
  * 
  * DBFInputFormat.RecordCountForSplit(myJob,[myRecordCountForSplit]);<BR><BR>
  * 
+ * Alternatively splits can target a number of bytes, within bounds and
+ * lowered to give data to all the requested map tasks. Such splits are
+ * aligned on the HDFS blocks so that each one is mostly read from a single
+ * block. <BR><BR>
+ * 
+ * DBFInputFormat.setSplitTargetBytes(myJob,[targetBytes],[minBytes],[maxBytes]);<BR><BR>
+ * 
+ * The header of each DBF file is read by a pool of HEADER_THREADS threads
+ * when planning the splits, each split carrying the header of its file. <BR><BR>
+ * 
+ * Users can also restrict the fields put into each record, the bytes of
+ * the other fields are skipped without being decoded. <BR><BR>
+ * 
+ * DBFInputFormat.setProjectedFields(myJob,[fieldName, ...]);<BR><BR>
+ * 
+ * Records can be filtered on their raw bytes before being decoded, the
+ * records rejected by the filter are skipped like deleted records. <BR><BR>
+ * 
+ * DBFInputFormat.setFilter(myJob,"ADMIN_CODE = '310000' AND SPEED_CLASS &lt; 4");<BR><BR>
+ * 
+ * D fields are decoded as UTC milliseconds, or as int days since
+ * 1970-01-01 with <BR><BR>
+ * 
+ * DBFInputFormat.setDateAsEpochDays(myJob,true);<BR><BR>
+ * 
+ * C fields are decoded as GBK unless another charset is configured, or
+ * "auto" to use the language driver of each DBF header. <BR><BR>
+ * 
+ * DBFInputFormat.setCharset(myJob,"windows-1252");<BR><BR>
+ * 
+ * Low cardinality C fields can be given a bounded dictionary of decoded
+ * values, its statistics are reported in the DBFDictionary.COUNTER_GROUP
+ * counters. <BR><BR>
+ * 
+ * DBFInputFormat.setDictionaryFields(myJob,[maxEntries],[fieldName, ...]);<BR><BR>
+ * 
+ * Splits can be read ahead by a background thread filling a ring of
+ * buffers while the records of the current one are decoded. <BR><BR>
+ * 
+ * DBFInputFormat.setReadAhead(myJob,[bufferCount],[bufferSize]);<BR><BR>
+ * 
+ * Records can be decoded by a pool of threads, in blocks of records
+ * handed to the mapper in file order. Only DBFRecordReader does so, the
+ * readers of DBFRecordInputFormat and DBFBatchInputFormat decoding in the
+ * task thread. <BR><BR>
+ * 
+ * DBFInputFormat.setDecodeThreads(myJob,[threads],[blockRecords]);<BR><BR>
+ * 
+ * Files with a current DBFRecordIndex built by DBFIndexer can be split by
+ * live records instead, each split holding about the split record count
+ * of live records, and their readers seek past the deleted records. <BR><BR>
+ * 
+ * DBFInputFormat.setRecordIndex(myJob,true);<BR><BR>
+ * 
+ * With a filter, the splits of files with a current DBFZoneMap built by
+ * DBFIndexer are dropped when none of their blocks of records may match. <BR><BR>
+ * 
+ * DBFInputFormat.setZoneMap(myJob,true);<BR><BR>
+ * 
+ * M fields are read from the .fpt or .dbt memo file next to the DBF file
+ * as DBFMemoWritable values, which read their text only when asked for,
+ * through an LRU cache of the memo file of the given size in bytes. <BR><BR>
+ * 
+ * DBFInputFormat.setMemoCacheSize(myJob,[bytes]);<BR><BR>
+ * 
+ * DBF files compressed with a codec of io.compression.codecs, such as
+ * .dbf.gz or .dbf.bz2 files, are decompressed while read, each one as a
+ * single split. <BR><BR>
+ * 
+ * @see    DBFFilter
  * <BR><BR>
  * This InputFormat returns a DBFRecordReader. <BR><BR>
  * 
@@ -40,17 +128,54 @@ import org.apache.hadoop.net.NetworkTopology;
 public class DBFInputFormat extends FileInputFormat<LongWritable, MapWritable> {
 
     public static final String SPLIT_RECORD_COUNT = "mapreduce.input.DBFInputFormat.split.recordcnt";
+    public static final String PROJECTED_FIELDS = "mapreduce.input.DBFInputFormat.fields";
+    public static final String FILTER = "mapreduce.input.DBFInputFormat.filter";
+    public static final String DATE_AS_EPOCH_DAYS = "mapreduce.input.DBFInputFormat.date.epochdays";
+    public static final String CHARSET = "mapreduce.input.DBFInputFormat.charset";
+    public static final String CHARSET_AUTO = "auto";
+    public static final String DICTIONARY_FIELDS = "mapreduce.input.DBFInputFormat.dictionary.fields";
+    public static final String DICTIONARY_SIZE = "mapreduce.input.DBFInputFormat.dictionary.size";
+    public static final String HEADER_THREADS = "mapreduce.input.DBFInputFormat.header.threads";
+    public static final String SPLIT_TARGET_BYTES = "mapreduce.input.DBFInputFormat.split.bytes";
+    public static final String SPLIT_MIN_BYTES = "mapreduce.input.DBFInputFormat.split.minbytes";
+    public static final String SPLIT_MAX_BYTES = "mapreduce.input.DBFInputFormat.split.maxbytes";
+    public static final String READ_AHEAD_BUFFERS = "mapreduce.input.DBFInputFormat.readahead.buffers";
+    public static final String READ_AHEAD_BUFFER_SIZE = "mapreduce.input.DBFInputFormat.readahead.size";
+    public static final String DECODE_THREADS = "mapreduce.input.DBFInputFormat.decode.threads";
+    public static final String DECODE_BLOCK_RECORDS = "mapreduce.input.DBFInputFormat.decode.block";
+    public static final String RECORD_INDEX = "mapreduce.input.DBFInputFormat.index";
+    public static final String ZONE_MAP = "mapreduce.input.DBFInputFormat.zonemap";
+    public static final String MEMO_CACHE_SIZE = "mapreduce.input.DBFInputFormat.memo.cache";
+
+    private static final int HEADER_CACHE_SIZE = 10000;
 
-    private DBFHeader dbfHeader;
+    // Headers already read in this process, by path, length and modification time
+    private static final Map<String, DBFHeader> s_headerCache = Collections.synchronizedMap(new LinkedHashMap<String, DBFHeader>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, DBFHeader> eldest) {
+            return size() > HEADER_CACHE_SIZE;
+        }
+    });
 
     @Override
     protected FileStatus[] listStatus(final JobConf job) throws IOException {
         final FileStatus[] orig = super.listStatus(job);
         final List<FileStatus> list = new ArrayList<FileStatus>(orig.length);
+        CompressionCodecFactory codecs = null;
         for (final FileStatus fileStatus : orig) {
             final String name = fileStatus.getPath().getName().toLowerCase();
             if (name.endsWith(".dbf")) {
                 list.add(fileStatus);
+                continue;
+            }
+            if (codecs == null) {
+                codecs = new CompressionCodecFactory(job);
+            }
+            final CompressionCodec codec = codecs.getCodec(fileStatus.getPath());
+            if (codec != null && CompressionCodecFactory.removeSuffix(name, codec.getDefaultExtension().toLowerCase()).endsWith(".dbf")) {
+                list.add(fileStatus);
             }
         }
         final FileStatus[] dest = new FileStatus[list.size()];
@@ -60,45 +185,88 @@ public class DBFInputFormat extends FileInputFormat<LongWritable, MapWritable> {
 
     @Override
     protected boolean isSplitable(final FileSystem fs, final Path path) {
-        return true;
+        return getCodec(fs.getConf(), path) == null;
     }
 
     @Override
     public RecordReader<LongWritable, MapWritable> getRecordReader(final InputSplit inputSplit, final JobConf jobConf, final Reporter reporter) throws IOException {
-        return new DBFRecordReader(inputSplit, jobConf);
+        return new DBFRecordReader(inputSplit, jobConf, reporter);
     }
 
     static final String NUM_INPUT_FILES = "mapreduce.input.num.files";
 
     private static final double SPLIT_SLOP = 1.1; // 10% slop
 
+    // Rack of the hosts seen in the block locations of the last planned splits
+    private final Map<String, String> m_hostRacks = new HashMap<String, String>();
+
     public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
         FileStatus[] files = listStatus(job);
+        m_hostRacks.clear();
 
         // Save the number of input files in the job-conf
         job.setLong(NUM_INPUT_FILES, files.length);
 
-        // Set DBF header from the first DBF file
-        dbfHeader = DBFHeader.read(files[0].getPath().getFileSystem(job).open(files[0].getPath()));
-        long headLength = dbfHeader.getHeadLength();
-        long splitSize = dbfHeader.getRecordLength() * getRecordCountForSplit(job);
+        // Read the DBF header of every DBF file
+        DBFHeader[] headers = readHeaders(job, files);
 
         // generate splits
         ArrayList<DBFFileSplit> splits = new ArrayList<DBFFileSplit>(numSplits);
 
         NetworkTopology clusterMap = new NetworkTopology();
+        String filter = job.get(FILTER);
+        CompressionCodecFactory codecs = new CompressionCodecFactory(job);
+
+        // In byte mode, the split size is the target size, lowered so that
+        // all the requested map tasks get some data, within the bounds
+        long targetBytes = job.getLong(SPLIT_TARGET_BYTES, 0L);
+        long minBytes = job.getLong(SPLIT_MIN_BYTES, 1L);
+        long maxBytes = job.getLong(SPLIT_MAX_BYTES, Long.MAX_VALUE);
+        long splitBytes = 0L;
+        if (targetBytes > 0) {
+            long totalSize = 0L;
+            for (int i = 0; i < files.length; i++) {
+                if (headers[i] != null) {
+                    totalSize += files[i].getLen() - headers[i].getHeadLength();
+                }
+            }
+            long goalSize = totalSize / Math.max(numSplits, 1);
+            splitBytes = Math.max(minBytes, Math.min(maxBytes, Math.min(targetBytes, Math.max(goalSize, 1L))));
+            LOG.debug("Target split size is: " + splitBytes);
+        }
 
-        for (FileStatus file : files) {
+        for (int i = 0; i < files.length; i++) {
+            FileStatus file = files[i];
+            DBFHeader dbfHeader = headers[i];
             Path path = file.getPath();
             FileSystem fs = path.getFileSystem(job);
 
             long length = file.getLen();
 
+            if (dbfHeader == null) {
+                LOG.warn("Skipping empty DBF file " + path);
+                continue;
+            }
+            long headLength = dbfHeader.getHeadLength();
+            long splitSize = dbfHeader.getRecordLength() * getRecordCountForSplit(job);
+
             BlockLocation[] blkLocations = fs.getFileBlockLocations(file, 0, length);
+            addHostRacks(blkLocations);
 
             length = length - headLength;
+            int firstSplit = splits.size();
+            boolean splitable = getCodec(codecs, path) == null;
 
-            if ((length != 0) && isSplitable(fs, path)) {
+            DBFRecordIndex recordIndex = (length != 0) && splitable && useRecordIndex(job) ? DBFRecordIndex.open(fs, file) : null;
+
+            if (recordIndex != null) {
+                long liveRecords = splitBytes > 0 ? Math.max(1L, splitBytes / dbfHeader.getRecordLength()) : getRecordCountForSplit(job);
+                addLiveSplits(splits, path, dbfHeader, recordIndex, liveRecords, blkLocations, clusterMap);
+            }
+            else if ((length != 0) && splitable && splitBytes > 0) {
+                addBlockAlignedSplits(splits, path, dbfHeader, headLength + length, blkLocations, splitBytes, minBytes, maxBytes, clusterMap);
+            }
+            else if ((length != 0) && splitable) {
 
                 long bytesRemaining = length;
 
@@ -112,6 +280,11 @@ public class DBFInputFormat extends FileInputFormat<LongWritable, MapWritable> {
                     splits.add(new DBFFileSplit(path, length - bytesRemaining + headLength, bytesRemaining, blkLocations[blkLocations.length - 1].getHosts(), dbfHeader));
                 }
             }
+            else if (length != 0 && !splitable) {
+                // The split of a compressed file covers its compressed bytes
+                String[] splitHosts = getSplitHosts(blkLocations, 0, file.getLen(), clusterMap);
+                splits.add(new DBFFileSplit(path, 0, file.getLen(), splitHosts, dbfHeader));
+            }
             else if (length != 0) {
                 String[] splitHosts = getSplitHosts(blkLocations, headLength, length, clusterMap);
                 splits.add(new DBFFileSplit(path, headLength, length, splitHosts, dbfHeader));
@@ -120,11 +293,323 @@ public class DBFInputFormat extends FileInputFormat<LongWritable, MapWritable> {
                 //Create empty hosts array for zero length files
                 splits.add(new DBFFileSplit(path, headLength, length, new String[0], dbfHeader));
             }
+
+            if (length != 0 && useZoneMap(job) && filter != null && filter.trim().length() > 0) {
+                pruneSplits(splits, firstSplit, job, fs, file, dbfHeader, !splitable, filter);
+            }
         }
         LOG.debug("Total # of splits: " + splits.size());
         return splits.toArray(new DBFFileSplit[splits.size()]);
     }
 
+    /**
+     * Add the splits of a file in byte mode. Splits of about splitBytes bytes
+     * never cross the boundary of an HDFS block, except for the end of the
+     * record starting before it: block boundaries are snapped to the next
+     * record boundary. A split shorter than minBytes before a block boundary
+     * is extended into the next block, up to maxBytes, and a short tail is
+     * merged with the last split of the file.
+     */
+    private void addBlockAlignedSplits(final List<DBFFileSplit> splits, final Path path, final DBFHeader dbfHeader, final long fileEnd, final BlockLocation[] blkLocations,
+            final long splitBytes, final long minBytes, final long maxBytes, final NetworkTopology clusterMap) throws IOException {
+        final long headLength = dbfHeader.getHeadLength();
+        final long recordLength = dbfHeader.getRecordLength();
+        final long splitRecords = Math.max(1L, splitBytes / recordLength);
+        final long maxRecords = Math.max(splitRecords, maxBytes / recordLength);
+
+        long pos = headLength;
+        while (pos < fileEnd) {
+            final long blockEnd = Math.min(fileEnd, alignToRecord(headLength, recordLength, nextBlockBoundary(blkLocations, pos)));
+            long end = Math.min(blockEnd, pos + splitRecords * recordLength);
+            if (end - pos < minBytes && blockEnd < fileEnd) {
+                // too small before the block boundary, extend into the next block
+                end = Math.min(fileEnd, pos + Math.max(splitRecords, (minBytes + recordLength - 1) / recordLength) * recordLength);
+            }
+            else if (end < blockEnd && (blockEnd - end < minBytes || (double) (blockEnd - pos) / (end - pos) <= SPLIT_SLOP)) {
+                // do not leave a small split before the block boundary
+                end = (blockEnd - pos + recordLength - 1) / recordLength <= maxRecords ? blockEnd : pos + maxRecords * recordLength;
+            }
+            if (fileEnd - end > 0 && (double) (fileEnd - pos) / (end - pos) <= SPLIT_SLOP) {
+                // merge the short tail of the file
+                end = fileEnd;
+            }
+            splits.add(new DBFFileSplit(path, pos, end - pos, getSplitHosts(blkLocations, pos, end - pos, clusterMap), dbfHeader));
+            pos = end;
+        }
+    }
+
+    /**
+     * Add the splits of a file from the live counts of the blocks of its
+     * record index, each split holding at least liveRecords live records
+     * but the last one. Splits start on a block with live records, so that
+     * runs of deleted blocks between splits are not read, and a short tail
+     * is merged with the last split.
+     */
+    private void addLiveSplits(final List<DBFFileSplit> splits, final Path path, final DBFHeader dbfHeader, final DBFRecordIndex recordIndex, final long liveRecords,
+            final BlockLocation[] blkLocations, final NetworkTopology clusterMap) throws IOException {
+        final long blockRecords = recordIndex.getBlockRecords();
+        final long recordCount = recordIndex.getRecordCount();
+        final List<long[]> ranges = new ArrayList<long[]>(); // First record, end record and live records
+        long first = -1;
+        long live = 0;
+        for (int block = 0; block < recordIndex.getBlockCount(); block++) {
+            final int liveCount = recordIndex.getLiveCount(block);
+            if (first < 0) {
+                if (liveCount == 0) {
+                    continue;
+                }
+                first = block * blockRecords;
+            }
+            live += liveCount;
+            if (live >= liveRecords) {
+                ranges.add(new long[] { first, Math.min(recordCount, (block + 1) * blockRecords), live });
+                first = -1;
+                live = 0;
+            }
+        }
+        if (first >= 0) {
+            final long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && (double) (last[2] + live) / last[2] <= SPLIT_SLOP) {
+                last[1] = recordCount;
+                last[2] += live;
+            }
+            else {
+                ranges.add(new long[] { first, recordCount, live });
+            }
+        }
+
+        final long headLength = dbfHeader.getHeadLength();
+        final long recordLength = dbfHeader.getRecordLength();
+        for (final long[] range : ranges) {
+            final long start = headLength + range[0] * recordLength;
+            final long length = (range[1] - range[0]) * recordLength;
+            splits.add(new DBFFileSplit(path, start, length, getSplitHosts(blkLocations, start, length, clusterMap), dbfHeader));
+        }
+    }
+
+    /**
+     * Remove the splits of a file, added from index firstSplit on, none of
+     * whose blocks of records may match the filter according to the zone
+     * map of the file, when it is current. The splits of a compressed file
+     * cover all its records.
+     */
+    private void pruneSplits(final List<DBFFileSplit> splits, final int firstSplit, final JobConf job, final FileSystem fs, final FileStatus file, final DBFHeader dbfHeader,
+            final boolean compressed, final String filter) throws IOException {
+        final DBFZoneMap zoneMap = DBFZoneMap.open(fs, file);
+        if (zoneMap == null) {
+            return;
+        }
+        // The fields of the header of the splits are left unconfigured
+        final DBFHeader header = dbfHeader.copy();
+        DBFRecordReader.configureFields(header, job, new ArrayList<DBFField>());
+        final DBFFilter dbfFilter = DBFFilter.compile(filter, header);
+
+        final long headLength = dbfHeader.getHeadLength();
+        final long recordLength = dbfHeader.getRecordLength();
+        final List<DBFFileSplit> fileSplits = splits.subList(firstSplit, splits.size());
+        final int count = fileSplits.size();
+        for (final Iterator<DBFFileSplit> it = fileSplits.iterator(); it.hasNext();) {
+            final DBFFileSplit split = it.next();
+            final long firstRecno = compressed ? 0 : (split.getStart() - headLength) / recordLength;
+            final long endRecno = compressed ? Long.MAX_VALUE : (split.getStart() + split.getLength() - headLength + recordLength - 1) / recordLength;
+            if (!zoneMap.mayMatch(dbfFilter, firstRecno, endRecno)) {
+                it.remove();
+            }
+        }
+        if (fileSplits.size() < count) {
+            LOG.debug("Pruned " + (count - fileSplits.size()) + " of " + count + " splits of " + file.getPath());
+        }
+    }
+
+    /**
+     * Return the end offset of the block holding the byte at offset.
+     */
+    private long nextBlockBoundary(final BlockLocation[] blkLocations, final long offset) {
+        for (final BlockLocation blkLocation : blkLocations) {
+            final long blockEnd = blkLocation.getOffset() + blkLocation.getLength();
+            if (blkLocation.getOffset() <= offset && offset < blockEnd) {
+                return blockEnd;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Return the first record boundary at or after offset.
+     */
+    private static long alignToRecord(final long headLength, final long recordLength, final long offset) {
+        if (offset == Long.MAX_VALUE) {
+            return offset;
+        }
+        return headLength + (offset - headLength + recordLength - 1) / recordLength * recordLength;
+    }
+
+    /**
+     * Remember the rack of each host of the blocks, from their topology
+     * paths /rack/name, where name matches the host at the same index.
+     */
+    private void addHostRacks(final BlockLocation[] blkLocations) throws IOException {
+        for (final BlockLocation blkLocation : blkLocations) {
+            final String[] hosts = blkLocation.getHosts();
+            final String[] topologyPaths = blkLocation.getTopologyPaths();
+            for (int i = 0; i < hosts.length && i < topologyPaths.length; i++) {
+                final int slash = topologyPaths[i].lastIndexOf('/');
+                if (slash > 0) {
+                    m_hostRacks.put(hosts[i], topologyPaths[i].substring(0, slash));
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the racks of the hosts of the splits planned by the last call
+     * of getSplits(), hosts without topology information are missing.
+     */
+    Map<String, String> getHostRacks() {
+        return m_hostRacks;
+    }
+
+    /**
+     * Read the headers of the given files with a pool of HEADER_THREADS
+     * threads. The header of an empty file is null.
+     */
+    static DBFHeader[] readHeaders(final JobConf job, final FileStatus[] files) throws IOException {
+        final DBFHeader[] headers = new DBFHeader[files.length];
+        final int threads = Math.min(job.getInt(HEADER_THREADS, 8), files.length);
+        if (threads <= 1) {
+            for (int i = 0; i < files.length; i++) {
+                headers[i] = readHeader(job, files[i]);
+            }
+            return headers;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "DBF header reader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            final List<Future<DBFHeader>> futures = new ArrayList<Future<DBFHeader>>(files.length);
+            for (final FileStatus file : files) {
+                futures.add(executor.submit(new Callable<DBFHeader>() {
+                    @Override
+                    public DBFHeader call() throws IOException {
+                        return readHeader(job, file);
+                    }
+                }));
+            }
+            for (int i = 0; i < files.length; i++) {
+                headers[i] = futures.get(i).get();
+            }
+            return headers;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading DBF headers", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot read DBF headers", e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Read the header of the given file, reading only the header bytes, or
+     * take it from the cache if the file did not change. The header of an
+     * empty file is null. <BR><BR>
+     *
+     * Readers configure the fields of their header and keep decoding state
+     * in them, so each caller gets its own copy of the cached header.
+     */
+    static DBFHeader readHeader(final JobConf job, final FileStatus file) throws IOException {
+        if (file.getLen() == 0) {
+            return null;
+        }
+        final Path path = file.getPath();
+        final String key = path + ":" + file.getLen() + ":" + file.getModificationTime();
+        DBFHeader header = s_headerCache.get(key);
+        if (header == null) {
+            final DataInputStream in = open(job, path);
+            try {
+                header = DBFHeader.read(in);
+            }
+            finally {
+                in.close();
+            }
+            s_headerCache.put(key, header);
+        }
+        return header.copy();
+    }
+
+    /**
+     * Return the codec of a compressed DBF file, from the extension of its
+     * name, or null if the file is not compressed.
+     */
+    static CompressionCodec getCodec(final Configuration conf, final Path path) {
+        if (path.getName().toLowerCase().endsWith(".dbf")) {
+            return null;
+        }
+        return getCodec(new CompressionCodecFactory(conf), path);
+    }
+
+    /**
+     * Return the codec of a compressed DBF file from the given factory, so
+     * that the codecs of many files are looked up with a single factory.
+     */
+    static CompressionCodec getCodec(final CompressionCodecFactory codecs, final Path path) {
+        if (path.getName().toLowerCase().endsWith(".dbf")) {
+            return null;
+        }
+        return codecs.getCodec(path);
+    }
+
+    /**
+     * Open a DBF file at its first byte, decompressing it if it has the
+     * extension of a codec.
+     */
+    static DataInputStream open(final Configuration conf, final Path path) throws IOException {
+        final FSDataInputStream in = path.getFileSystem(conf).open(path);
+        final CompressionCodec codec = getCodec(conf, path);
+        if (codec == null) {
+            return in;
+        }
+        try {
+            return new DataInputStream(codec.createInputStream(in));
+        }
+        catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a DBF file at its first record.
+     */
+    static DataInputStream openRecords(final Configuration conf, final Path path, final DBFHeader header) throws IOException {
+        final DataInputStream in = open(conf, path);
+        try {
+            if (in instanceof FSDataInputStream) {
+                ((FSDataInputStream) in).seek(header.getHeadLength());
+            }
+            else {
+                IOUtils.skipFully(in, header.getHeadLength());
+            }
+        }
+        catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
     /**
      * Return the int value from the given Configuration found
      * by the SPLIT_RECORD_COUNT property.
@@ -150,4 +635,259 @@ public class DBFInputFormat extends FileInputFormat<LongWritable, MapWritable> {
         job.setInt(SPLIT_RECORD_COUNT, splitLength);
     }
 
+    /**
+     * Return the field names found by the PROJECTED_FIELDS property, or
+     * null if all the fields should be read.
+     * 
+     * @param job
+     * @return    the projected field names, or null
+     */
+    static String[] getProjectedFields(JobConf job) {
+        return getFieldNames(job, PROJECTED_FIELDS);
+    }
+
+    private static String[] getFieldNames(JobConf job, String property) {
+        final String[] names = job.getStrings(property);
+        if (names == null) {
+            return null;
+        }
+        final List<String> list = new ArrayList<String>(names.length);
+        for (final String name : names) {
+            final String trimmed = name.trim();
+            if (trimmed.length() > 0) {
+                list.add(trimmed);
+            }
+        }
+        return list.isEmpty() ? null : list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * Set the names of the fields to read, the other fields are skipped
+     * @param job the job to modify
+     * @param fieldNames the names of the fields to read
+     */
+    public static void setProjectedFields(JobConf job, String... fieldNames) {
+        job.setStrings(PROJECTED_FIELDS, fieldNames);
+    }
+
+    /**
+     * Set the filter expression records must match to be read
+     * @param job the job to modify
+     * @param expression the filter expression
+     * @see DBFFilter
+     */
+    public static void setFilter(JobConf job, String expression) {
+        job.set(FILTER, expression);
+    }
+
+    /**
+     * Set whether D fields are read as int epoch days instead of long millis
+     * @param job the job to modify
+     * @param epochDays true to read epoch days
+     */
+    public static void setDateAsEpochDays(JobConf job, boolean epochDays) {
+        job.setBoolean(DATE_AS_EPOCH_DAYS, epochDays);
+    }
+
+    /**
+     * Return the charset of the C fields of the given header found by the
+     * CHARSET property, GBK by default.
+     * 
+     * @param job
+     * @param header
+     * @return    the charset to decode C fields with
+     */
+    static Charset getCharset(JobConf job, DBFHeader header) {
+        final String name = job.get(CHARSET);
+        if (name == null || name.trim().length() == 0) {
+            return DBFField.DEFAULT_CHARSET;
+        }
+        if (CHARSET_AUTO.equalsIgnoreCase(name.trim())) {
+            return header.getLanguageDriverCharset(DBFField.DEFAULT_CHARSET);
+        }
+        return Charset.forName(name.trim());
+    }
+
+    /**
+     * Set the charset of the C fields
+     * @param job the job to modify
+     * @param charsetName the charset name, or "auto" to detect it from the
+     *        language driver of each DBF header
+     */
+    public static void setCharset(JobConf job, String charsetName) {
+        job.set(CHARSET, charsetName);
+    }
+
+    /**
+     * Return the field names found by the DICTIONARY_FIELDS property, or
+     * null if no field has a dictionary.
+     * 
+     * @param job
+     * @return    the names of the fields with a dictionary, or null
+     */
+    static String[] getDictionaryFields(JobConf job) {
+        return getFieldNames(job, DICTIONARY_FIELDS);
+    }
+
+    /**
+     * Return the int value found by the DICTIONARY_SIZE property.
+     * 
+     * @param job
+     * @return    the maximum number of entries of each dictionary
+     */
+    static int getDictionarySize(JobConf job) {
+        return job.getInt(DICTIONARY_SIZE, 1024);
+    }
+
+    /**
+     * Set the C fields decoded through a dictionary of their values
+     * @param job the job to modify
+     * @param maxEntries the maximum number of entries of each dictionary
+     * @param fieldNames the names of the fields
+     */
+    public static void setDictionaryFields(JobConf job, int maxEntries, String... fieldNames) {
+        job.setInt(DICTIONARY_SIZE, maxEntries);
+        job.setStrings(DICTIONARY_FIELDS, fieldNames);
+    }
+
+    /**
+     * Plan splits by bytes instead of records, aligned on the HDFS blocks
+     * @param job the job to modify
+     * @param targetBytes the target size of a split
+     * @param minBytes the minimum size of a split
+     * @param maxBytes the maximum size of a split
+     */
+    public static void setSplitTargetBytes(JobConf job, long targetBytes, long minBytes, long maxBytes) {
+        job.setLong(SPLIT_TARGET_BYTES, targetBytes);
+        job.setLong(SPLIT_MIN_BYTES, minBytes);
+        job.setLong(SPLIT_MAX_BYTES, maxBytes);
+    }
+
+    /**
+     * Return the int value found by the READ_AHEAD_BUFFERS property, 0 when
+     * splits are not read ahead.
+     * 
+     * @param job
+     * @return    the number of read-ahead buffers
+     */
+    static int getReadAheadBuffers(JobConf job) {
+        return job.getInt(READ_AHEAD_BUFFERS, 0);
+    }
+
+    /**
+     * Return the int value found by the READ_AHEAD_BUFFER_SIZE property.
+     * 
+     * @param job
+     * @return    the size of each read-ahead buffer
+     */
+    static int getReadAheadBufferSize(JobConf job) {
+        return job.getInt(READ_AHEAD_BUFFER_SIZE, 8 * 1024 * 1024);
+    }
+
+    /**
+     * Read splits ahead in a background thread
+     * @param job the job to modify
+     * @param bufferCount the number of buffers of the ring, 0 to disable
+     * @param bufferSize the size of each buffer, rounded down to whole records
+     */
+    public static void setReadAhead(JobConf job, int bufferCount, int bufferSize) {
+        job.setInt(READ_AHEAD_BUFFERS, bufferCount);
+        job.setInt(READ_AHEAD_BUFFER_SIZE, bufferSize);
+    }
+
+    /**
+     * Return the int value found by the DECODE_THREADS property, 0 when
+     * records are decoded by the task thread. Only DBFRecordReader reads it.
+     * 
+     * @param job
+     * @return    the number of decoding threads
+     */
+    static int getDecodeThreads(JobConf job) {
+        return job.getInt(DECODE_THREADS, 0);
+    }
+
+    /**
+     * Return the int value found by the DECODE_BLOCK_RECORDS property.
+     * 
+     * @param job
+     * @return    the number of records of each decoded block
+     */
+    static int getDecodeBlockRecords(JobConf job) {
+        return job.getInt(DECODE_BLOCK_RECORDS, 4096);
+    }
+
+    /**
+     * Decode records with a pool of threads. The setting only applies to the
+     * readers of DBFInputFormat, those of DBFRecordInputFormat and
+     * DBFBatchInputFormat ignore it
+     * @param job the job to modify
+     * @param threads the number of decoding threads, 0 to disable
+     * @param blockRecords the number of records handed to a thread at once
+     */
+    public static void setDecodeThreads(JobConf job, int threads, int blockRecords) {
+        job.setInt(DECODE_THREADS, threads);
+        job.setInt(DECODE_BLOCK_RECORDS, blockRecords);
+    }
+
+    /**
+     * Return the boolean value found by the RECORD_INDEX property.
+     * 
+     * @param job
+     * @return    true if the record indexes of the files are used
+     */
+    static boolean useRecordIndex(JobConf job) {
+        return job.getBoolean(RECORD_INDEX, false);
+    }
+
+    /**
+     * Split files by live records and skip their deleted records with their
+     * record index, when it is current
+     * @param job the job to modify
+     * @param recordIndex true to use the record indexes
+     * @see DBFIndexer
+     */
+    public static void setRecordIndex(JobConf job, boolean recordIndex) {
+        job.setBoolean(RECORD_INDEX, recordIndex);
+    }
+
+    /**
+     * Return the long value found by the MEMO_CACHE_SIZE property.
+     * 
+     * @param job
+     * @return    the size in bytes of the cache of a memo file
+     */
+    static long getMemoCacheSize(JobConf job) {
+        return job.getLong(MEMO_CACHE_SIZE, 4 * 1024 * 1024);
+    }
+
+    /**
+     * Set the size of the cache of the memo file read by each task
+     * @param job the job to modify
+     * @param bytes the size of the cache in bytes
+     */
+    public static void setMemoCacheSize(JobConf job, long bytes) {
+        job.setLong(MEMO_CACHE_SIZE, bytes);
+    }
+
+    /**
+     * Return the boolean value found by the ZONE_MAP property.
+     * 
+     * @param job
+     * @return    true if the zone maps of the files are used
+     */
+    static boolean useZoneMap(JobConf job) {
+        return job.getBoolean(ZONE_MAP, false);
+    }
+
+    /**
+     * Drop the splits which cannot match the filter according to the zone
+     * map of their file, when it is current
+     * @param job the job to modify
+     * @param zoneMap true to use the zone maps
+     * @see DBFIndexer
+     */
+    public static void setZoneMap(JobConf job, boolean zoneMap) {
+        job.setBoolean(ZONE_MAP, zoneMap);
+    }
+
 }
@@ -0,0 +1,191 @@
+/**
+ * @file	DBFMappedReader.java
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * DBFMappedReader reads a local DBF file through memory mapped windows of
+ * its FileChannel, outside Hadoop. Windows hold a whole number of records
+ * so that any file size can be read and record i is addressed directly at
+ * headerLength + i * recordLength. <BR><BR>
+ *
+ * Records are read in sequence like with DBFReader, or at random with
+ * read(recno). Each record is copied from the mapping into the record
+ * buffer with a single bulk get, and decoded by the DBFField decoders.
+ * <BR><BR>
+ *
+ * The mappings are released by the garbage collector after close().
+ *
+ * @see    DBFReader
+ */
+public class DBFMappedReader implements Closeable {
+    public static final int DEFAULT_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    private final RandomAccessFile m_file;
+    private final FileChannel m_channel;
+    private final DBFHeader m_header;
+    private final byte[] m_record;
+    private final long m_recordCount;
+    private final long m_recordsPerWindow;
+    private MappedByteBuffer m_window;
+    private long m_windowIndex = -1;
+    private long m_nextRecno;
+    private long m_recno = -1;
+
+    public DBFMappedReader(final File file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create a reader mapping windows of about windowSize bytes, at least
+     * one record.
+     */
+    public DBFMappedReader(final File file, final int windowSize) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            m_header = DBFHeader.read(in);
+        }
+        finally {
+            in.close();
+        }
+        m_file = new RandomAccessFile(file, "r");
+        m_channel = m_file.getChannel();
+        final long recordLength = m_header.getRecordLength();
+        m_record = new byte[m_header.recordLength];
+        m_recordsPerWindow = Math.max(1, windowSize / recordLength);
+        m_recordCount = Math.min(m_header.numberOfRecords & 0xFFFFFFFFL, Math.max(0, (m_channel.size() - m_header.getHeadLength()) / recordLength));
+    }
+
+    public DBFHeader getHeader() {
+        return m_header;
+    }
+
+    /**
+     * Return the number of records of the file, bounded by its size.
+     */
+    public long getRecordCount() {
+        return m_recordCount;
+    }
+
+    /**
+     * Position the reader on the given record for the next call of
+     * nextDataType().
+     */
+    public void seek(final long recno) {
+        m_nextRecno = recno;
+    }
+
+    /**
+     * Load the given record in the record buffer, returning its deleted
+     * flag, or DBFType.END if there is no such record.
+     */
+    public byte read(final long recno) throws IOException {
+        if (recno < 0 || recno >= m_recordCount) {
+            return DBFType.END;
+        }
+        final long windowIndex = recno / m_recordsPerWindow;
+        if (windowIndex != m_windowIndex) {
+            final long recordLength = m_header.getRecordLength();
+            final long firstRecno = windowIndex * m_recordsPerWindow;
+            final long records = Math.min(m_recordsPerWindow, m_recordCount - firstRecno);
+            m_window = m_channel.map(FileChannel.MapMode.READ_ONLY, m_header.getHeadLength() + firstRecno * recordLength, records * recordLength);
+            m_windowIndex = windowIndex;
+        }
+        m_window.position((int) ((recno - windowIndex * m_recordsPerWindow) * m_record.length));
+        m_window.get(m_record);
+        m_recno = recno;
+        return m_record[0];
+    }
+
+    /**
+     * Move to the next record which is not deleted and load it in the
+     * record buffer. Return DBFType.END once the last record or the 0x1A
+     * terminator is reached.
+     */
+    public byte nextDataType() throws IOException {
+        byte dataType;
+        do {
+            dataType = read(m_nextRecno);
+            if (dataType == DBFType.END) {
+                m_nextRecno = m_recordCount;
+                break;
+            }
+            m_nextRecno++;
+        }
+        while (dataType == DBFType.DELETED);
+        return dataType;
+    }
+
+    public long getRecordNumber() {
+        return m_recno;
+    }
+
+    public long getNextRecordNumber() {
+        return m_nextRecno;
+    }
+
+    /**
+     * Return the buffer holding the raw bytes of the current record. Fields
+     * start at DBFField.offset.
+     */
+    public byte[] getRecordBuffer() {
+        return m_record;
+    }
+
+    public Object readFieldValue(final int index) throws IOException {
+        final DBFField field = m_header.getField(index);
+        return field.readValue(m_record, field.offset);
+    }
+
+    public Writable readFieldWritable(final int index) throws IOException {
+        final DBFField field = m_header.getField(index);
+        return field.readWritable(m_record, field.offset);
+    }
+
+    public Object[] readRecord() throws IOException {
+        if (nextDataType() == DBFType.END) {
+            return null;
+        }
+        final Object values[] = new Object[m_header.numberOfFields];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readFieldValue(i);
+        }
+        return values;
+    }
+
+    public Map<String, Object> readRecordAsMap(final Map<String, Object> map) throws IOException {
+        if (nextDataType() == DBFType.END) {
+            return null;
+        }
+        for (final DBFField field : m_header.fields) {
+            map.put(field.fieldName, field.readValue(m_record, field.offset));
+        }
+        return map;
+    }
+
+    public Map<String, Object> readRecordAsMap() throws IOException {
+        return readRecordAsMap(new HashMap<String, Object>());
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_window = null;
+        m_windowIndex = -1;
+        m_channel.close();
+        m_file.close();
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * @file	DBFMemoFile.java
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * DBFMemoFile reads the values of the M fields of a DBF file from its
+ * sibling memo file, a FoxPro .fpt file or a dBase III or IV .dbt file,
+ * by the block numbers stored in the records. <BR><BR>
+ *
+ * Values are read through a bounded LRU cache of pages of the memo file,
+ * whose statistics are reported in the COUNTER_GROUP counters. Reads are
+ * synchronized, so that a memo file can be shared by decoding threads.
+ * <BR><BR>
+ *
+ * DBFRecordReader returns M fields as DBFMemoWritable values, read when
+ * asked for, while DBFRecordWritable and DBFBatch read them as Text when
+ * the record is decoded. The columnar sidecars and DBFOutputFormat do not
+ * carry M fields.
+ *
+ * @see    DBFMemoWritable
+ */
+public class DBFMemoFile {
+    public static final String COUNTER_GROUP = "DBF Memo";
+
+    private static final String[] EXTENSIONS = { ".fpt", ".FPT", ".dbt", ".DBT" };
+    private static final int PAGE_SIZE = 8192;
+    private static final int DBT_BLOCK_SIZE = 512;
+    private static final byte END = 0x1A; // Terminator of dBase III values
+
+    private final Path m_path;
+    private final FSDataInputStream m_in;
+    private final long m_length;
+    private final boolean m_foxPro;
+    private final int m_blockSize;
+    private final Map<Long, byte[]> m_pages; // Access ordered
+    private long m_hits;
+    private long m_misses;
+    private long m_bytesRead;
+
+    private DBFMemoFile(final Path path, final FSDataInputStream in, final long length, final long cacheSize) throws IOException {
+        m_path = path;
+        m_in = in;
+        m_length = length;
+        m_foxPro = path.getName().toLowerCase().endsWith(".fpt");
+        final int maxPages = (int) Math.max(1, Math.min(Integer.MAX_VALUE, cacheSize / PAGE_SIZE));
+        m_pages = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest) {
+                return size() > maxPages;
+            }
+        };
+
+        // The block size is a big endian short at 6 in .fpt files and a
+        // little endian one at 20 in dBase IV .dbt files
+        final byte[] head = new byte[22];
+        read(0, head, 0, (int) Math.min(head.length, length));
+        final int blockSize = m_foxPro ? (head[6] & 0xFF) << 8 | head[7] & 0xFF : (head[21] & 0xFF) << 8 | head[20] & 0xFF;
+        m_blockSize = blockSize > 0 ? blockSize : DBT_BLOCK_SIZE;
+    }
+
+    /**
+     * Return the memo file next to a DBF file, or null if it has none.
+     */
+    public static Path findMemoPath(final FileSystem fs, final Path dbfPath) throws IOException {
+        final String name = dbfPath.getName();
+        final int dot = name.toLowerCase().lastIndexOf(".dbf");
+        final String base = dot >= 0 ? name.substring(0, dot) : name;
+        for (final String extension : EXTENSIONS) {
+            final Path path = new Path(dbfPath.getParent(), base + extension);
+            if (fs.exists(path)) {
+                return path;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Open the memo file of a DBF file with a cache of cacheSize bytes, or
+     * return null if it has none.
+     */
+    public static DBFMemoFile open(final FileSystem fs, final Path dbfPath, final long cacheSize) throws IOException {
+        final Path path = findMemoPath(fs, dbfPath);
+        if (path == null) {
+            return null;
+        }
+        final long length = fs.getFileStatus(path).getLen();
+        final FSDataInputStream in = fs.open(path);
+        try {
+            return new DBFMemoFile(path, in, length, cacheSize);
+        }
+        catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the bytes of the value starting at a block.
+     *
+     * @throws IOException if the block is outside the memo file
+     */
+    public synchronized byte[] read(final long block) throws IOException {
+        final long offset = block * m_blockSize;
+        if (block <= 0 || offset >= m_length) {
+            throw new IOException("Memo block " + block + " is outside " + m_path);
+        }
+        final byte[] head = new byte[8];
+        final int headLength = read(offset, head, 0, (int) Math.min(head.length, m_length - offset));
+        if (m_foxPro) {
+            // Big endian type and length of the value
+            return readValue(offset + 8, readInt(head, 4, true));
+        }
+        if (headLength == 8 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFF && head[2] == 8 && head[3] == 0) {
+            // dBase IV, the little endian length counts the 8 bytes of head
+            return readValue(offset + 8, readInt(head, 4, false) - 8);
+        }
+
+        // dBase III, the value ends with 0x1A
+        final ByteArrayOutputStream value = new ByteArrayOutputStream();
+        final byte[] page = new byte[PAGE_SIZE];
+        for (long position = offset; position < m_length;) {
+            final int n = read(position, page, 0, (int) Math.min(page.length - position % PAGE_SIZE, m_length - position));
+            for (int i = 0; i < n; i++) {
+                if (page[i] == END) {
+                    value.write(page, 0, i);
+                    return value.toByteArray();
+                }
+            }
+            value.write(page, 0, n);
+            position += n;
+        }
+        return value.toByteArray();
+    }
+
+    private byte[] readValue(final long offset, final long length) throws IOException {
+        if (length < 0 || offset + length > m_length) {
+            throw new IOException("Invalid memo length " + length + " at " + offset + " of " + m_path);
+        }
+        final byte[] value = new byte[(int) length];
+        read(offset, value, 0, value.length);
+        return value;
+    }
+
+    private static int readInt(final byte[] bytes, final int from, final boolean bigEndian) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            final int b = bytes[from + (bigEndian ? i : 3 - i)] & 0xFF;
+            value = value << 8 | b;
+        }
+        return value;
+    }
+
+    /**
+     * Copy length bytes of the memo file at offset through the page cache.
+     */
+    private int read(long offset, final byte[] bytes, int from, final int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            final byte[] page = getPage(offset / PAGE_SIZE);
+            final int pageOffset = (int) (offset % PAGE_SIZE);
+            final int n = Math.min(remaining, page.length - pageOffset);
+            if (n <= 0) {
+                throw new IOException("Unexpected end of " + m_path + " at " + offset);
+            }
+            System.arraycopy(page, pageOffset, bytes, from, n);
+            offset += n;
+            from += n;
+            remaining -= n;
+        }
+        return length;
+    }
+
+    private byte[] getPage(final long index) throws IOException {
+        byte[] page = m_pages.get(index);
+        if (page != null) {
+            m_hits++;
+            return page;
+        }
+        m_misses++;
+        final long offset = index * PAGE_SIZE;
+        page = new byte[(int) Math.max(0, Math.min(PAGE_SIZE, m_length - offset))];
+        m_in.readFully(offset, page);
+        m_bytesRead += page.length;
+        m_pages.put(index, page);
+        return page;
+    }
+
+    /**
+     * Report the statistics of the cache since the last call.
+     */
+    public synchronized void report(final Reporter reporter) {
+        reporter.incrCounter(COUNTER_GROUP, "cache hits", m_hits);
+        reporter.incrCounter(COUNTER_GROUP, "cache misses", m_misses);
+        reporter.incrCounter(COUNTER_GROUP, "bytes read", m_bytesRead);
+        m_hits = 0;
+        m_misses = 0;
+        m_bytesRead = 0;
+    }
+
+    public int getBlockSize() {
+        return m_blockSize;
+    }
+
+    public synchronized void close() throws IOException {
+        m_pages.clear();
+        m_in.close();
+    }
+
+    @Override
+    public String toString() {
+        return "DBFMemoFile{" + m_path + ", blockSize=" + m_blockSize + "}";
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * @file	DBFMemoWritable.java
+ */
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * DBFMemoWritable is the value of an M field. It only holds the block
+ * number stored in the record until the value is asked for by getText()
+ * or getBytes(), which read it from the DBFMemoFile. <BR><BR>
+ *
+ * The value is written as a Text, so that a value read back holds the
+ * text without its memo file.
+ *
+ * @see    DBFMemoFile
+ */
+public class DBFMemoWritable implements Writable {
+    private DBFMemoFile m_memoFile;
+    private long m_block;
+    private Charset m_charset;
+    private final Text m_text = new Text();
+    private boolean m_loaded;
+
+    public DBFMemoWritable() {
+    }
+
+    /**
+     * Point to the value starting at a block of a memo file, decoded in the
+     * charset.
+     */
+    void set(final DBFMemoFile memoFile, final long block, final Charset charset) {
+        m_memoFile = memoFile;
+        m_block = block;
+        m_charset = charset;
+        m_loaded = false;
+    }
+
+    /**
+     * Return the block number of the value in the memo file, or 0 when the
+     * value was read back.
+     */
+    public long getBlock() {
+        return m_block;
+    }
+
+    /**
+     * Return the bytes of the value as stored in the memo file, or its UTF-8
+     * bytes when it was read back.
+     */
+    public byte[] getBytes() throws IOException {
+        if (m_memoFile == null) {
+            return Arrays.copyOf(m_text.getBytes(), m_text.getLength());
+        }
+        return m_memoFile.read(m_block);
+    }
+
+    /**
+     * Return the value, reading it on the first call.
+     */
+    public Text getText() throws IOException {
+        if (!m_loaded) {
+            m_text.set(new String(m_memoFile.read(m_block), m_charset));
+            m_loaded = true;
+        }
+        return m_text;
+    }
+
+    @Override
+    public void write(final DataOutput out) throws IOException {
+        getText().write(out);
+    }
+
+    @Override
+    public void readFields(final DataInput in) throws IOException {
+        m_text.readFields(in);
+        m_memoFile = null;
+        m_block = 0;
+        m_loaded = true;
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return getText().toString();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/**
+ * @file	DBFMicroBenchmark.java
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DBFMicroBenchmark measures the decoding paths of DBF records on data of
+ * DBFDataGenerator held in memory: DBFField.readValue() and readWritable()
+ * for each type, DBFReader.readRecord(), readRecordAsMap() and
+ * readFieldWritable(), and DBFHeader.read(). <BR><BR>
+ *
+ * java DBFMicroBenchmark [-warmup n] [-iterations n] [-time ms] [-fields n]
+ *     [-types mix] [-deleted ratio] [-charset name] [-records n] [pattern]<BR><BR>
+ *
+ * Each benchmark whose name contains the pattern is run for warmup and
+ * then measured iterations of the given time, in the calling thread. The
+ * report gives the mean throughput in operations per second with its
+ * standard deviation, the time per operation and the bytes allocated per
+ * operation by the thread, when the JVM can tell. An operation decodes one
+ * field value, one record or one header.
+ *
+ * @see    DBFDataGenerator
+ */
+public class DBFMicroBenchmark {
+    private static final int FIELD_RECORDS = 4096; // Must be a power of 2
+    private static final int BATCH_OPS = 256;
+
+    // Name, field specification and charset of the field benchmarks
+    private static final String[][] FIELDS = {
+            { "C GBK", "C16", "GBK" },
+            { "C ASCII", "C16", "US-ASCII" },
+            { "N short", "N4", "GBK" },
+            { "N int", "N9", "GBK" },
+            { "N long", "N18", "GBK" },
+            { "N decimal", "N12.3", "GBK" },
+            { "F", "F12.4", "GBK" },
+            { "D", "D", "GBK" },
+            { "L", "L", "GBK" } };
+
+    /**
+     * A benchmark running ops operations per call of run(). Results are
+     * stored into m_sink so that they are not optimized away.
+     */
+    static abstract class Benchmark {
+        final String m_name;
+        Object m_sink;
+
+        Benchmark(final String name) {
+            m_name = name;
+        }
+
+        abstract void run(int ops) throws IOException;
+    }
+
+    /**
+     * Benchmark of DBFField.readValue() or readWritable() on the values of a
+     * field held in a buffer of records.
+     */
+    static class FieldBenchmark extends Benchmark {
+        private final DBFField m_field;
+        private final byte[] m_records;
+        private final int m_recordLength;
+        private final boolean m_writable;
+        private int m_next;
+
+        FieldBenchmark(final String name, final String spec, final Charset charset, final boolean writable) throws IOException {
+            super((writable ? "DBFField.readWritable " : "DBFField.readValue ") + name);
+            final DBFDataGenerator generator = new DBFDataGenerator(1, spec, 0, charset, 1);
+            m_field = generator.getHeader().getField(0);
+            m_recordLength = generator.getHeader().recordLength;
+            m_records = new byte[FIELD_RECORDS * m_recordLength];
+            final byte[] record = new byte[m_recordLength];
+            for (int i = 0; i < FIELD_RECORDS; i++) {
+                generator.nextRecord(record);
+                System.arraycopy(record, 0, m_records, i * m_recordLength, m_recordLength);
+            }
+            m_writable = writable;
+        }
+
+        @Override
+        void run(final int ops) throws IOException {
+            for (int i = 0; i < ops; i++) {
+                final int from = (m_next++ & (FIELD_RECORDS - 1)) * m_recordLength + m_field.offset;
+                m_sink = m_writable ? m_field.readWritable(m_records, from) : m_field.readValue(m_records, from);
+            }
+        }
+    }
+
+    /**
+     * Benchmark of DBFReader on a DBF file held in memory, read again from
+     * its first record once all are read.
+     */
+    static class ReaderBenchmark extends Benchmark {
+        static final int RECORD = 0, RECORD_AS_MAP = 1, FIELD_WRITABLE = 2;
+
+        private final byte[] m_file;
+        private final DBFHeader m_header;
+        private final int m_mode;
+        private DBFReader m_reader;
+
+        ReaderBenchmark(final byte[] file, final DBFHeader header, final int mode) {
+            super(mode == RECORD ? "DBFReader.readRecord" : mode == RECORD_AS_MAP ? "DBFReader.readRecordAsMap" : "DBFReader.readFieldWritable");
+            m_file = file;
+            m_header = header;
+            m_mode = mode;
+        }
+
+        @Override
+        void run(final int ops) throws IOException {
+            for (int i = 0; i < ops; i++) {
+                if (m_reader == null) {
+                    m_reader = new DBFReader(new DataInputStream(new ByteArrayInputStream(m_file, m_header.headerLength, m_file.length - m_header.headerLength)), m_header);
+                }
+                Object result;
+                switch (m_mode) {
+                    case RECORD:
+                        result = m_reader.readRecord();
+                        break;
+                    case RECORD_AS_MAP:
+                        result = m_reader.readRecordAsMap();
+                        break;
+                    default:
+                        result = null;
+                        if (m_reader.nextDataType() != DBFType.END) {
+                            for (int field = 0; field < m_header.numberOfFields; field++) {
+                                result = m_reader.readFieldWritable(field);
+                            }
+                        }
+                        break;
+                }
+                if (result == null) {
+                    m_reader = null;
+                }
+                m_sink = result;
+            }
+        }
+    }
+
+    /**
+     * Benchmark of DBFHeader.read() on the bytes of a header.
+     */
+    static class HeaderBenchmark extends Benchmark {
+        private final byte[] m_bytes;
+
+        HeaderBenchmark(final DBFHeader header) throws IOException {
+            super("DBFHeader.read " + header.numberOfFields + " fields");
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            header.writeTo(new DataOutputStream(bytes));
+            m_bytes = bytes.toByteArray();
+        }
+
+        @Override
+        void run(final int ops) throws IOException {
+            for (int i = 0; i < ops; i++) {
+                m_sink = DBFHeader.read(new DataInputStream(new ByteArrayInputStream(m_bytes)));
+            }
+        }
+    }
+
+    /**
+     * Throughput and allocation of the measured iterations of a benchmark.
+     */
+    static class Result {
+        final String m_name;
+        final double m_opsPerSecond;
+        final double m_error; // Standard deviation of the iterations
+        final double m_bytesPerOp; // Negative if unknown
+
+        Result(final String name, final double[] opsPerSecond, final double bytesPerOp) {
+            m_name = name;
+            double sum = 0;
+            for (final double value : opsPerSecond) {
+                sum += value;
+            }
+            m_opsPerSecond = sum / opsPerSecond.length;
+            double squares = 0;
+            for (final double value : opsPerSecond) {
+                squares += (value - m_opsPerSecond) * (value - m_opsPerSecond);
+            }
+            m_error = opsPerSecond.length > 1 ? Math.sqrt(squares / (opsPerSecond.length - 1)) : 0;
+            m_bytesPerOp = bytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %14.0f %12.0f %10.2f %10s", m_name, m_opsPerSecond, m_error, 1e9 / m_opsPerSecond,
+                    m_bytesPerOp < 0 ? "n/a" : String.format("%.1f", m_bytesPerOp));
+        }
+    }
+
+    /**
+     * Run the warmup iterations of a benchmark, then measure its iterations.
+     */
+    static Result measure(final Benchmark benchmark, final int warmups, final int iterations, final long millis) throws IOException {
+        for (int i = 0; i < warmups; i++) {
+            runFor(benchmark, millis);
+        }
+        final double[] opsPerSecond = new double[iterations];
+        long totalOps = 0;
+        final long allocatedBefore = getAllocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            final long start = System.nanoTime();
+            final long ops = runFor(benchmark, millis);
+            opsPerSecond[i] = ops * 1e9 / (System.nanoTime() - start);
+            totalOps += ops;
+        }
+        final long allocatedAfter = getAllocatedBytes();
+        final double bytesPerOp = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : (allocatedAfter - allocatedBefore) / (double) totalOps;
+        return new Result(benchmark.m_name, opsPerSecond, bytesPerOp);
+    }
+
+    /**
+     * Run batches of operations for about millis, returning their number.
+     */
+    private static long runFor(final Benchmark benchmark, final long millis) throws IOException {
+        final long end = System.nanoTime() + millis * 1000000L;
+        long ops = 0;
+        do {
+            benchmark.run(BATCH_OPS);
+            ops += BATCH_OPS;
+        }
+        while (System.nanoTime() < end);
+        return ops;
+    }
+
+    /**
+     * Return the bytes allocated by the current thread so far, or -1 if the
+     * JVM cannot tell.
+     */
+    private static long getAllocatedBytes() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean hotSpotThreads = (com.sun.management.ThreadMXBean) threads;
+            if (hotSpotThreads.isThreadAllocatedMemorySupported() && hotSpotThreads.isThreadAllocatedMemoryEnabled()) {
+                return hotSpotThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Create all the benchmarks, the reader and header ones on records of
+     * the generator.
+     */
+    static List<Benchmark> createBenchmarks(final DBFDataGenerator generator, final Charset charset, final int recordCount) throws IOException {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        for (final String[] field : FIELDS) {
+            benchmarks.add(new FieldBenchmark(field[0], field[1], Charset.forName(field[2]), false));
+            benchmarks.add(new FieldBenchmark(field[0], field[1], Charset.forName(field[2]), true));
+        }
+        final byte[] file = generator.toBytes(recordCount);
+        final DBFHeader header = DBFHeader.read(new DataInputStream(new ByteArrayInputStream(file)));
+        header.setCharset(charset);
+        benchmarks.add(new ReaderBenchmark(file, header, ReaderBenchmark.RECORD));
+        benchmarks.add(new ReaderBenchmark(file, header, ReaderBenchmark.RECORD_AS_MAP));
+        benchmarks.add(new ReaderBenchmark(file, header, ReaderBenchmark.FIELD_WRITABLE));
+        benchmarks.add(new HeaderBenchmark(header));
+        return benchmarks;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        int warmups = 3;
+        int iterations = 5;
+        long millis = 1000;
+        int fieldCount = 8;
+        String types = DBFDataGenerator.DEFAULT_TYPES;
+        double deletedRatio = 0.1;
+        String charset = DBFField.DEFAULT_CHARSET.name();
+        int recordCount = 10000;
+        String pattern = "";
+        for (int i = 0; i < args.length; i++) {
+            if ("-warmup".equals(args[i]) && i + 1 < args.length) {
+                warmups = Integer.parseInt(args[++i]);
+            }
+            else if ("-iterations".equals(args[i]) && i + 1 < args.length) {
+                iterations = Math.max(1, Integer.parseInt(args[++i]));
+            }
+            else if ("-time".equals(args[i]) && i + 1 < args.length) {
+                millis = Long.parseLong(args[++i]);
+            }
+            else if ("-fields".equals(args[i]) && i + 1 < args.length) {
+                fieldCount = Integer.parseInt(args[++i]);
+            }
+            else if ("-types".equals(args[i]) && i + 1 < args.length) {
+                types = args[++i];
+            }
+            else if ("-deleted".equals(args[i]) && i + 1 < args.length) {
+                deletedRatio = Double.parseDouble(args[++i]);
+            }
+            else if ("-charset".equals(args[i]) && i + 1 < args.length) {
+                charset = args[++i];
+            }
+            else if ("-records".equals(args[i]) && i + 1 < args.length) {
+                recordCount = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].startsWith("-")) {
+                System.err.println("Usage: DBFMicroBenchmark [-warmup n] [-iterations n] [-time ms] [-fields n] [-types mix] [-deleted ratio] [-charset name] [-records n] [pattern]");
+                System.exit(2);
+            }
+            else {
+                pattern = args[i];
+            }
+        }
+
+        final DBFDataGenerator generator = new DBFDataGenerator(fieldCount, types, deletedRatio, Charset.forName(charset), 1);
+        System.out.println(String.format("%-40s %14s %12s %10s %10s", "Benchmark", "ops/s", "error", "ns/op", "B/op"));
+        for (final Benchmark benchmark : createBenchmarks(generator, Charset.forName(charset), recordCount)) {
+            if (benchmark.m_name.contains(pattern)) {
+                System.out.println(measure(benchmark, warmups, iterations, millis));
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * @file	DBFOutputFormat.java
+ */
+
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.InvalidJobConfException;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * DBFOutputFormat writes one DBF file per task, named after the task with
+ * a .dbf extension. The fields of the files are configured as a list of
+ * NAME:TYPE[:LENGTH[:DECIMALS]], D and L fields having a fixed length, or
+ * taken from an existing header. <BR><BR>
+ *
+ * DBFOutputFormat.setFields(myJob,"NAME:C:40","CODE:N:6","SPEED:N:10:3","DAY:D","OK:L");<BR>
+ * DBFOutputFormat.setHeader(myJob,[dbfHeader]);<BR><BR>
+ *
+ * The value of each record maps field names, as Text, to their values of
+ * the types read by DBFInputFormat. Missing fields are written blank. C
+ * fields are encoded as GBK unless another charset is configured. <BR><BR>
+ *
+ * DBFOutputFormat.setCharset(myJob,"windows-1252");<BR><BR>
+ *
+ * This OutputFormat returns a DBFRecordWriter. <BR><BR>
+ *
+ * @see    DBFRecordWriter
+ */
+public class DBFOutputFormat extends FileOutputFormat<Writable, MapWritable> {
+
+    public static final String FIELDS = "mapreduce.output.DBFOutputFormat.fields";
+    public static final String CHARSET = "mapreduce.output.DBFOutputFormat.charset";
+
+    @Override
+    public RecordWriter<Writable, MapWritable> getRecordWriter(final FileSystem ignored, final JobConf job, final String name, final Progressable progress) throws IOException {
+        final DBFHeader header = DBFHeader.create(getFields(job), getCharset(job));
+        final Path file = FileOutputFormat.getTaskOutputPath(job, name + ".dbf");
+        final FileSystem fs = file.getFileSystem(job);
+        return new DBFRecordWriter(fs.create(file, progress), header);
+    }
+
+    @Override
+    public void checkOutputSpecs(final FileSystem ignored, final JobConf job) throws IOException {
+        super.checkOutputSpecs(ignored, job);
+        getFields(job);
+    }
+
+    /**
+     * Parse the fields found by the FIELDS property.
+     * 
+     * @param job
+     * @return    the fields of the files to write
+     */
+    static List<DBFField> getFields(JobConf job) throws IOException {
+        final String[] specs = job.getStrings(FIELDS);
+        if (specs == null || specs.length == 0) {
+            throw new InvalidJobConfException("No DBF output fields configured in " + FIELDS);
+        }
+        final List<DBFField> fields = new ArrayList<DBFField>(specs.length);
+        for (final String spec : specs) {
+            final String[] parts = spec.trim().split(":");
+            try {
+                if (parts.length < 2 || parts.length > 4 || parts[1].length() != 1) {
+                    throw new IllegalArgumentException("Expected NAME:TYPE[:LENGTH[:DECIMALS]]");
+                }
+                final int length = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
+                final int decimals = parts.length > 3 ? Integer.parseInt(parts[3]) : 0;
+                fields.add(new DBFField(parts[0], (byte) Character.toUpperCase(parts[1].charAt(0)), length, decimals));
+            }
+            catch (IllegalArgumentException e) {
+                throw new InvalidJobConfException("Invalid DBF output field " + spec + ": " + e.getMessage());
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Return the charset found by the CHARSET property, GBK by default.
+     * 
+     * @param job
+     * @return    the charset of the C fields
+     */
+    static Charset getCharset(JobConf job) {
+        final String name = job.get(CHARSET);
+        return name == null ? DBFField.DEFAULT_CHARSET : Charset.forName(name);
+    }
+
+    /**
+     * Set the fields of the files to write
+     * @param job the job to modify
+     * @param fieldSpecs the fields as NAME:TYPE[:LENGTH[:DECIMALS]]
+     */
+    public static void setFields(JobConf job, String... fieldSpecs) {
+        job.setStrings(FIELDS, fieldSpecs);
+    }
+
+    /**
+     * Set the fields of the files to write to those of a header
+     * @param job the job to modify
+     * @param header the header, of a file read by DBFInputFormat for instance
+     */
+    public static void setHeader(JobConf job, DBFHeader header) {
+        final String[] specs = new String[header.numberOfFields];
+        for (int i = 0; i < specs.length; i++) {
+            final DBFField field = header.getField(i);
+            specs[i] = field.fieldName + ":" + (char) field.dataType + ":" + field.fieldLength + ":" + field.decimalCount;
+        }
+        setFields(job, specs);
+    }
+
+    /**
+     * Set the charset of the C fields
+     * @param job the job to modify
+     * @param charsetName the name of the charset
+     */
+    public static void setCharset(JobConf job, String charsetName) {
+        job.set(CHARSET, charsetName);
+    }
+
+}
@@ -0,0 +1,232 @@
+/**
+ * @file	DBFParallelDecoder.java
+ */
+
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * DBFParallelDecoder decodes the records of a DBFReader in blocks of a fixed
+ * number of records, handed to a pool of worker threads, while the records
+ * of the blocks already decoded are consumed in file order. <BR><BR>
+ *
+ * Blocks are read by the consumer thread. Each worker decodes with a copy
+ * of the header of its own, since fields hold decoding state, and each row
+ * of a block has its own Writable instances. Up to two blocks per thread
+ * are in flight.
+ *
+ * @see    DBFRecordReader
+ */
+public class DBFParallelDecoder {
+
+    /**
+     * Records of a block, with the rows selected and their values.
+     */
+    private static class Block {
+        final byte[] m_records;
+        final int[] m_rows;
+        final Writable[][] m_values;
+        long m_firstRecno;
+        int m_size;
+        int m_count; // Selected rows
+
+        Block(final int capacity, final int recordLength, final int fieldCount) {
+            m_records = new byte[capacity * recordLength];
+            m_rows = new int[capacity];
+            m_values = new Writable[capacity][fieldCount];
+        }
+    }
+
+    /**
+     * Decoding state of a worker.
+     */
+    private static class Worker {
+        final DBFField[] m_fields;
+        final DBFFilter m_filter;
+
+        Worker(final DBFHeader header, final int[] fieldIndexes, final DBFFilter filter) {
+            m_fields = new DBFField[fieldIndexes.length];
+            for (int i = 0; i < fieldIndexes.length; i++) {
+                m_fields[i] = header.getField(fieldIndexes[i]);
+            }
+            m_filter = filter;
+        }
+    }
+
+    private final DBFReader m_reader;
+    private final int m_recordLength;
+    private final int m_blockRecords;
+    private final ExecutorService m_executor;
+    private final BlockingQueue<Worker> m_workers;
+    private final Queue<Block> m_free = new ArrayDeque<Block>();
+    private final Queue<Future<Block>> m_pending = new ArrayDeque<Future<Block>>();
+    private boolean m_eof;
+    private Block m_block; // Block being consumed
+    private int m_cursor;
+    private int m_row;
+
+    /**
+     * Create a decoder of the given fields of the records of the reader,
+     * configured like the header of the reader. The fields given a
+     * dictionary by each worker are added to dictionaryFields.
+     */
+    public DBFParallelDecoder(final DBFReader reader, final JobConf jobConf, final int[] fieldIndexes, final int threads, final int blockRecords, final List<DBFField> dictionaryFields) throws IOException {
+        m_reader = reader;
+        final DBFHeader header = reader.getHeader();
+        m_recordLength = header.recordLength;
+        m_blockRecords = Math.max(1, blockRecords);
+        final String filter = jobConf.get(DBFInputFormat.FILTER);
+        m_workers = new ArrayBlockingQueue<Worker>(threads);
+        for (int i = 0; i < threads; i++) {
+            final DBFHeader copy = header.copy();
+            DBFRecordReader.configureFields(copy, jobConf, dictionaryFields);
+            for (int j = 0; j < copy.fields.size(); j++) {
+                copy.getField(j).memoFile = header.getField(j).memoFile;
+            }
+            m_workers.add(new Worker(copy, fieldIndexes, filter != null && filter.trim().length() > 0 ? DBFFilter.compile(filter, copy) : null));
+        }
+        for (int i = 0; i < threads * 2; i++) {
+            m_free.add(new Block(m_blockRecords, m_recordLength, fieldIndexes.length));
+        }
+        m_executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "DBF decoder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Move to the next record not deleted and accepted by the filter,
+     * returning false at the end.
+     */
+    public boolean next() throws IOException {
+        while (m_block == null || m_cursor >= m_block.m_count) {
+            if (m_block != null) {
+                m_free.add(m_block);
+                m_block = null;
+            }
+            submit();
+            final Future<Block> future = m_pending.poll();
+            if (future == null) {
+                return false;
+            }
+            m_block = get(future);
+            m_cursor = 0;
+        }
+        m_row = m_block.m_rows[m_cursor++];
+        return true;
+    }
+
+    /**
+     * Read blocks and submit them for decoding while there are free ones.
+     */
+    private void submit() throws IOException {
+        while (!m_eof && !m_free.isEmpty()) {
+            final Block block = m_free.peek();
+            final int size = m_reader.readRecords(block.m_records, m_blockRecords);
+            if (size == 0) {
+                m_eof = true;
+                break;
+            }
+            m_free.poll();
+            block.m_firstRecno = m_reader.getRecordNumber() - size + 1;
+            block.m_size = size;
+            m_pending.add(m_executor.submit(new Callable<Block>() {
+                @Override
+                public Block call() throws Exception {
+                    final Worker worker = m_workers.take();
+                    try {
+                        decode(worker, block);
+                    }
+                    finally {
+                        m_workers.add(worker);
+                    }
+                    return block;
+                }
+            }));
+        }
+    }
+
+    private static Block get(final Future<Block> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding DBF records", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot decode DBF records", e.getCause());
+        }
+    }
+
+    private void decode(final Worker worker, final Block block) throws IOException {
+        final byte[] records = block.m_records;
+        final DBFField[] fields = worker.m_fields;
+        int count = 0;
+        for (int row = 0, from = 0; row < block.m_size; row++, from += m_recordLength) {
+            if (records[from] == DBFType.DELETED || (worker.m_filter != null && !worker.m_filter.accept(records, from))) {
+                continue;
+            }
+            block.m_rows[count++] = row;
+            final Writable[] values = block.m_values[row];
+            for (int i = 0; i < fields.length; i++) {
+                final Writable reuse = values[i] == NullWritable.get() ? null : values[i];
+                values[i] = fields[i].readWritable(records, from + fields[i].offset, reuse);
+            }
+        }
+        block.m_count = count;
+    }
+
+    /**
+     * Return the number of the current record.
+     */
+    public long getRecordNumber() {
+        return m_block.m_firstRecno + m_row;
+    }
+
+    /**
+     * Return the value of the i-th decoded field of the current record.
+     */
+    public Writable getValue(final int i) {
+        return m_block.m_values[m_row][i];
+    }
+
+    /**
+     * Stop the workers, waiting for the blocks being decoded.
+     */
+    public void close() throws IOException {
+        m_executor.shutdownNow();
+        try {
+            m_executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        m_pending.clear();
+        m_free.clear();
+        m_block = null;
+    }
+}
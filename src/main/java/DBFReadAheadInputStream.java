@@ -0,0 +1,183 @@
+/**
+ * @file	DBFReadAheadInputStream.java
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * DBFReadAheadInputStream reads a range of an input stream ahead of its
+ * consumer, in a background thread filling a ring of buffers while the
+ * consumer decodes the current one. Buffer sizes are multiples of the
+ * record length so that records rarely straddle two buffers. <BR><BR>
+ *
+ * close() stops the thread, but does not close the underlying stream.
+ */
+public class DBFReadAheadInputStream extends InputStream {
+
+    /**
+     * A buffer of the ring, or the last one holding the end of the range or
+     * the error raised by the underlying stream.
+     */
+    private static class Chunk {
+        final byte[] m_bytes;
+        int m_length;
+        boolean m_last;
+        IOException m_error;
+
+        Chunk(final int size) {
+            m_bytes = new byte[size];
+        }
+    }
+
+    private final BlockingQueue<Chunk> m_free;
+    private final BlockingQueue<Chunk> m_filled;
+    private final Thread m_thread;
+    private volatile boolean m_closed;
+    private Chunk m_chunk; // Chunk being consumed
+    private int m_pos;
+
+    /**
+     * Read ahead the next length bytes of the stream, in bufferCount
+     * buffers of bufferSize bytes rounded down to a multiple of
+     * recordLength.
+     */
+    public DBFReadAheadInputStream(final InputStream in, final long length, final int bufferCount, final int bufferSize, final int recordLength, final String name) {
+        final int count = Math.max(2, bufferCount);
+        final int size = Math.max(1, bufferSize / recordLength) * recordLength;
+        m_free = new ArrayBlockingQueue<Chunk>(count);
+        m_filled = new ArrayBlockingQueue<Chunk>(count);
+        for (int i = 0; i < count; i++) {
+            m_free.add(new Chunk(size));
+        }
+        m_thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                fill(in, length);
+            }
+        }, "DBF read-ahead " + name);
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    private void fill(final InputStream in, final long length) {
+        long remaining = length;
+        try {
+            while (!m_closed) {
+                final Chunk chunk = m_free.take();
+                chunk.m_length = 0;
+                final int size = (int) Math.min(chunk.m_bytes.length, remaining);
+                try {
+                    while (chunk.m_length < size) {
+                        final int n = in.read(chunk.m_bytes, chunk.m_length, size - chunk.m_length);
+                        if (n < 0) {
+                            break;
+                        }
+                        chunk.m_length += n;
+                    }
+                    remaining -= chunk.m_length;
+                    chunk.m_last = chunk.m_length < chunk.m_bytes.length || remaining == 0;
+                }
+                catch (IOException e) {
+                    chunk.m_error = e;
+                    chunk.m_last = true;
+                }
+                m_filled.put(chunk);
+                if (chunk.m_last) {
+                    return;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Make m_chunk a chunk with bytes left, returning false at the end.
+     */
+    private boolean nextChunk() throws IOException {
+        while (m_chunk == null || m_pos >= m_chunk.m_length) {
+            if (m_chunk != null) {
+                if (m_chunk.m_error != null) {
+                    throw m_chunk.m_error;
+                }
+                if (m_chunk.m_last) {
+                    return false;
+                }
+                m_free.add(m_chunk);
+                m_chunk = null;
+            }
+            if (m_closed) {
+                throw new IOException("Stream closed");
+            }
+            try {
+                m_chunk = m_filled.take();
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while reading ahead");
+            }
+            m_pos = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+        return m_chunk.m_bytes[m_pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!nextChunk()) {
+            return -1;
+        }
+        final int n = Math.min(len, m_chunk.m_length - m_pos);
+        System.arraycopy(m_chunk.m_bytes, m_pos, b, off, n);
+        m_pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        if (n <= 0 || !nextChunk()) {
+            return 0;
+        }
+        final int skipped = (int) Math.min(n, m_chunk.m_length - m_pos);
+        m_pos += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return m_chunk == null ? 0 : m_chunk.m_length - m_pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+        m_thread.interrupt();
+        try {
+            m_thread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        m_free.clear();
+        m_filled.clear();
+        m_chunk = null;
+    }
+}
@@ -6,6 +6,7 @@
  */
 
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
@@ -23,10 +24,30 @@ import org.apache.hadoop.io.Writable;
 public class DBFReader {
     private final DataInputStream m_dataInputStream;
     private final DBFHeader m_header;
+    private final byte[] m_record; // Reused buffer holding the current record, deleted flag included
+    private final long m_endRecno; // Number of the first record not to read
+    private long m_nextRecno; // Number of the record the stream is positioned on
+    private long m_recno = -1; // Number of the current record
 
+    /**
+     * Create a reader of all the records of the header, the stream being
+     * positioned on the first record.
+     */
     public DBFReader(final DataInputStream dataInputStream, final DBFHeader header) throws IOException {
+        this(dataInputStream, header, 0, header.numberOfRecords);
+    }
+
+    /**
+     * Create a reader of the records in [firstRecno, endRecno), bounded by
+     * the number of records of the header, the stream being positioned on
+     * record firstRecno.
+     */
+    public DBFReader(final DataInputStream dataInputStream, final DBFHeader header, final long firstRecno, final long endRecno) throws IOException {
         m_dataInputStream = dataInputStream;
         m_header = header;
+        m_record = new byte[header.recordLength];
+        m_nextRecno = firstRecno;
+        m_endRecno = Math.min(endRecno, header.numberOfRecords & 0xFFFFFFFFL);
     }
 
     public Map<String, Object> readRecordAsMap(final Map<String, Object> map) throws IOException {
@@ -35,7 +56,7 @@ public class DBFReader {
             return null;
         }
         for (final DBFField field : m_header.fields) {
-            map.put(field.fieldName, field.readValue(m_dataInputStream));
+            map.put(field.fieldName, field.readValue(m_record, field.offset));
         }
         return map;
     }
@@ -65,36 +86,154 @@ public class DBFReader {
         return m_header.numberOfFields;
     }
 
+    /**
+     * Move to the next record which is not deleted and load it in the
+     * record buffer. Return DBFType.END once the record range, the number of
+     * records of the header, the 0x1A terminator or the end of the stream is
+     * reached.
+     */
     public byte nextDataType() throws IOException {
         byte dataType = 0;
         do {
-            if (m_dataInputStream.available() <= 0) {
+            if (m_nextRecno >= m_endRecno) {
                 dataType = DBFType.END;
                 break;
             }
 
-            dataType = m_dataInputStream.readByte();
+            try {
+                dataType = m_dataInputStream.readByte();
+            }
+            catch (EOFException e) {
+                dataType = DBFType.END;
+            }
 
             if (dataType == DBFType.END) {
+                m_nextRecno = m_endRecno;
                 break;
             }
-            else if (dataType == DBFType.DELETED) {
+
+            m_recno = m_nextRecno++;
+            if (dataType == DBFType.DELETED) {
                 skipRecord();
             }
+            else {
+                m_record[0] = dataType;
+                m_dataInputStream.readFully(m_record, 1, m_record.length - 1);
+            }
         }
         while (dataType == DBFType.DELETED);
         return dataType;
     }
 
+    /**
+     * Return the number of the record loaded by the last call of
+     * nextDataType(), counted from 0 at the first record of the file.
+     */
+    public long getRecordNumber() {
+        return m_recno;
+    }
+
+    /**
+     * Return the number of the record the stream is positioned on.
+     */
+    public long getNextRecordNumber() {
+        return m_nextRecno;
+    }
+
+    /**
+     * Return the buffer holding the raw bytes of the current record, as
+     * loaded by the last call of nextDataType(). Fields start at
+     * DBFField.offset.
+     */
+    public byte[] getRecordBuffer() {
+        return m_record;
+    }
+
+    /**
+     * Read up to maxRecords records, deleted ones included, into the buffer
+     * one after the other, stopping at the same ends as nextDataType().
+     * Return the number of records read, 0 once the end is reached.
+     */
+    public int readRecords(final byte[] buffer, final int maxRecords) throws IOException {
+        final int recordLength = m_header.recordLength;
+        final int max = (int) Math.min(maxRecords, m_endRecno - m_nextRecno);
+        if (max <= 0) {
+            return 0;
+        }
+        final int length = max * recordLength;
+        int read = 0;
+        while (read < length) {
+            final int n = m_dataInputStream.read(buffer, read, length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        int count = read / recordLength;
+        for (int i = 0; i < count; i++) {
+            if (buffer[i * recordLength] == DBFType.END) {
+                count = i;
+                read = -1;
+                break;
+            }
+        }
+        if (read >= 0 && read < length) {
+            if (read % recordLength != 0 && buffer[count * recordLength] != DBFType.END) {
+                throw new EOFException("Truncated record " + (m_nextRecno + count));
+            }
+            read = -1;
+        }
+        if (count > 0) {
+            m_recno = m_nextRecno + count - 1;
+        }
+        m_nextRecno = read < 0 ? m_endRecno : m_nextRecno + count;
+        return count;
+    }
+
+    public DBFHeader getHeader() {
+        return m_header;
+    }
+
+    /**
+     * Move the stream to record recno without reading the records before
+     * it, bounded by the end of the record range. Seekable streams skip by
+     * seeking.
+     */
+    public void skipTo(final long recno) throws IOException {
+        final long target = Math.min(recno, m_endRecno);
+        long remaining = (target - m_nextRecno) * m_header.recordLength;
+        while (remaining > 0) {
+            final int skipped = m_dataInputStream.skipBytes((int) Math.min(remaining, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                m_nextRecno = m_endRecno; // end of the stream
+                return;
+            }
+            remaining -= skipped;
+        }
+        m_nextRecno = Math.max(m_nextRecno, target);
+    }
+
     public void skipRecord() throws IOException {
-        m_dataInputStream.skipBytes(m_header.recordLength - 1);
+        int remaining = m_header.recordLength - 1;
+        while (remaining > 0) {
+            final int skipped = m_dataInputStream.skipBytes(remaining);
+            if (skipped <= 0) {
+                m_dataInputStream.readByte(); // throws EOFException at the end of the stream
+                remaining--;
+            }
+            else {
+                remaining -= skipped;
+            }
+        }
     }
 
     public Object readFieldValue(final int index) throws IOException {
-        return m_header.getField(index).readValue(m_dataInputStream);
+        final DBFField field = m_header.getField(index);
+        return field.readValue(m_record, field.offset);
     }
 
     public Writable readFieldWritable(final int index) throws IOException {
-        return m_header.getField(index).readWritable(m_dataInputStream);
+        final DBFField field = m_header.getField(index);
+        return field.readWritable(m_record, field.offset);
     }
 }
@@ -0,0 +1,263 @@
+/**
+ * @file	DBFRecordIndex.java
+ */
+
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * DBFRecordIndex is a sidecar index of the deleted records of a DBF file,
+ * named after it with a .dbfx extension and built by DBFIndexer. It holds
+ * the number of live records of each block of blockRecords records and a
+ * bitmap with a bit set for each deleted record. <BR><BR>
+ *
+ * The index starts with the magic bytes DBFX, a version byte, the length
+ * and the modification time of the DBF file it was built from, the number
+ * of records, the number of records of a block (a multiple of 64) and the
+ * number of blocks, followed by one int live count per block and one long
+ * word of the bitmap per 64 records. <BR><BR>
+ *
+ * Split planning only reads the live counts, each reader then loads the
+ * words of the bitmap covering its split.
+ *
+ * @see    DBFIndexer
+ */
+public class DBFRecordIndex {
+    public static final String EXTENSION = ".dbfx";
+    public static final int DEFAULT_BLOCK_RECORDS = 4096;
+
+    static final byte[] MAGIC = { 'D', 'B', 'F', 'X' };
+    static final byte VERSION = 1;
+    private static final int HEAD_LENGTH = 4 + 1 + 8 + 8 + 8 + 4 + 4;
+    private static final int READ_RECORDS = 4096;
+
+    private final long m_recordCount;
+    private final int m_blockRecords;
+    private final int[] m_liveCounts;
+    private long[] m_deleted = new long[0]; // Loaded words of the bitmap
+    private long m_firstWord; // Index of m_deleted[0] in the bitmap
+
+    private DBFRecordIndex(final long recordCount, final int blockRecords, final int[] liveCounts) {
+        m_recordCount = recordCount;
+        m_blockRecords = blockRecords;
+        m_liveCounts = liveCounts;
+    }
+
+    /**
+     * Return the path of the index of a DBF file, its name with the .dbf
+     * extension replaced.
+     */
+    public static Path getIndexPath(final Path dbfPath) {
+        final String name = dbfPath.getName();
+        final String base = name.toLowerCase().endsWith(".dbf") ? name.substring(0, name.length() - 4) : name;
+        return new Path(dbfPath.getParent(), base + EXTENSION);
+    }
+
+    /**
+     * Scan the records of a DBF file and write its index.
+     */
+    public static void build(final JobConf job, final FileStatus dbfFile, final int blockRecords, final Reporter reporter) throws IOException {
+        final Path path = dbfFile.getPath();
+        final FileSystem fs = path.getFileSystem(job);
+        final DBFHeader header = DBFInputFormat.readHeader(job, dbfFile);
+        if (header == null) {
+            throw new IOException("Cannot index empty DBF file " + path);
+        }
+        final int block = Math.max(64, (blockRecords + 63) / 64 * 64);
+
+        long[] deleted = new long[1024];
+        int[] liveCounts = new int[64];
+        long recordCount = 0;
+        final DataInputStream in = DBFInputFormat.openRecords(job, path, header);
+        try {
+            final DBFReader reader = new DBFReader(in, header);
+            final byte[] records = new byte[READ_RECORDS * header.recordLength];
+            int size;
+            while ((size = reader.readRecords(records, READ_RECORDS)) > 0) {
+                for (int row = 0, from = 0; row < size; row++, from += header.recordLength) {
+                    final int word = (int) (recordCount >>> 6);
+                    final int blockIndex = (int) (recordCount / block);
+                    if (word >= deleted.length) {
+                        deleted = Arrays.copyOf(deleted, deleted.length * 2);
+                    }
+                    if (blockIndex >= liveCounts.length) {
+                        liveCounts = Arrays.copyOf(liveCounts, liveCounts.length * 2);
+                    }
+                    if (records[from] == DBFType.DELETED) {
+                        deleted[word] |= 1L << (recordCount & 63);
+                    }
+                    else {
+                        liveCounts[blockIndex]++;
+                    }
+                    recordCount++;
+                }
+                reporter.progress();
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        final Path index = getIndexPath(path);
+        final Path tmp = new Path(index.getParent(), "_" + index.getName() + ".tmp");
+        final DataOutputStream out = fs.create(tmp, true);
+        try {
+            final int blockCount = (int) ((recordCount + block - 1) / block);
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(dbfFile.getLen());
+            out.writeLong(dbfFile.getModificationTime());
+            out.writeLong(recordCount);
+            out.writeInt(block);
+            out.writeInt(blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                out.writeInt(liveCounts[i]);
+            }
+            for (int i = 0; i < (recordCount + 63) >>> 6; i++) {
+                out.writeLong(deleted[i]);
+            }
+        }
+        finally {
+            out.close();
+        }
+        if (fs.exists(index)) {
+            fs.delete(index, false);
+        }
+        if (!fs.rename(tmp, index)) {
+            throw new IOException("Cannot rename " + tmp + " to " + index);
+        }
+    }
+
+    /**
+     * Read the live counts of the index of a DBF file, or return null if it
+     * does not exist or was built from another version of the file.
+     */
+    public static DBFRecordIndex open(final FileSystem fs, final FileStatus dbfFile) throws IOException {
+        final Path path = getIndexPath(dbfFile.getPath());
+        if (!fs.exists(path)) {
+            return null;
+        }
+        final FSDataInputStream in = fs.open(path);
+        try {
+            final byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a DBF record index: " + path);
+            }
+            final byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of DBF record index " + path);
+            }
+            final long sourceLength = in.readLong();
+            final long sourceModificationTime = in.readLong();
+            if (sourceLength != dbfFile.getLen() || sourceModificationTime != dbfFile.getModificationTime()) {
+                return null;
+            }
+            final long recordCount = in.readLong();
+            final int blockRecords = in.readInt();
+            final int[] liveCounts = new int[in.readInt()];
+            for (int i = 0; i < liveCounts.length; i++) {
+                liveCounts[i] = in.readInt();
+            }
+            return new DBFRecordIndex(recordCount, blockRecords, liveCounts);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Load the words of the bitmap covering the records in [firstRecno,
+     * endRecno), the other records being seen as live.
+     */
+    public void loadBitmap(final FileSystem fs, final Path dbfPath, final long firstRecno, final long endRecno) throws IOException {
+        final long end = Math.min(endRecno, m_recordCount);
+        if (firstRecno >= end) {
+            m_deleted = new long[0];
+            return;
+        }
+        m_firstWord = firstRecno >>> 6;
+        final int words = (int) (((end + 63) >>> 6) - m_firstWord);
+        final FSDataInputStream in = fs.open(getIndexPath(dbfPath));
+        try {
+            in.seek(HEAD_LENGTH + 4L * m_liveCounts.length + 8L * m_firstWord);
+            m_deleted = new long[words];
+            for (int i = 0; i < words; i++) {
+                m_deleted[i] = in.readLong();
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return true if the record is deleted, false if it is live or outside
+     * the loaded bitmap.
+     */
+    public boolean isDeleted(final long recno) {
+        final long word = (recno >>> 6) - m_firstWord;
+        return recno >= 0 && word >= 0 && word < m_deleted.length && (m_deleted[(int) word] & (1L << (recno & 63))) != 0;
+    }
+
+    /**
+     * Return the first record at or after recno which is live or outside
+     * the loaded bitmap.
+     */
+    public long nextLive(final long recno) {
+        long word = (recno >>> 6) - m_firstWord;
+        if (recno < 0 || word < 0 || word >= m_deleted.length) {
+            return recno;
+        }
+        long live = ~m_deleted[(int) word] & (-1L << (recno & 63));
+        while (live == 0) {
+            if (++word == m_deleted.length) {
+                return (m_firstWord + word) << 6;
+            }
+            live = ~m_deleted[(int) word];
+        }
+        return ((m_firstWord + word) << 6) + Long.numberOfTrailingZeros(live);
+    }
+
+    public long getRecordCount() {
+        return m_recordCount;
+    }
+
+    public int getBlockRecords() {
+        return m_blockRecords;
+    }
+
+    public int getBlockCount() {
+        return m_liveCounts.length;
+    }
+
+    /**
+     * Return the number of live records of a block.
+     */
+    public int getLiveCount(final int block) {
+        return m_liveCounts[block];
+    }
+
+    public long getLiveCount() {
+        long count = 0;
+        for (final int liveCount : m_liveCounts) {
+            count += liveCount;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "DBFRecordIndex{records=" + m_recordCount + ", live=" + getLiveCount() + ", blockRecords=" + m_blockRecords + "}";
+    }
+}
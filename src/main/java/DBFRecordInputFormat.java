@@ -0,0 +1,39 @@
+/**
+ * @file	DBFRecordInputFormat.java
+ */
+
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * DBFRecordInputFormat is the counterpart of DBFInputFormat handing out
+ * DBFRecordWritable values instead of MapWritable. Splits are planned by
+ * DBFInputFormat and all its properties apply. <BR><BR>
+ * 
+ * This InputFormat returns a DBFRecordWritableReader. <BR><BR>
+ * 
+ * @see    DBFInputFormat
+ * @see    DBFRecordWritable
+ */
+public class DBFRecordInputFormat extends FileInputFormat<LongWritable, DBFRecordWritable> {
+
+    private final DBFInputFormat m_dbfInputFormat = new DBFInputFormat();
+
+    @Override
+    public InputSplit[] getSplits(final JobConf job, final int numSplits) throws IOException {
+        return m_dbfInputFormat.getSplits(job, numSplits);
+    }
+
+    @Override
+    public RecordReader<LongWritable, DBFRecordWritable> getRecordReader(final InputSplit inputSplit, final JobConf jobConf, final Reporter reporter) throws IOException {
+        return new DBFRecordWritableReader(inputSplit, jobConf, reporter);
+    }
+
+}
@@ -6,18 +6,23 @@
  */
 
 
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.MapWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
 
 /**
  * @author FanRong
@@ -34,30 +39,104 @@ public class DBFRecordReader implements RecordReader<LongWritable, MapWritable>
     protected long pos;
     protected DBFHeader dbfHeader;
     protected FSDataInputStream m_dbfStream;
+    protected DBFReadAheadInputStream m_readAhead;
     protected DBFReader m_dbfReader;
     protected List<Text> m_keys;
+    protected int[] m_fieldIndexes; // Indexes of the fields put into the value
+    protected DBFFilter m_filter;
+    protected Reporter m_reporter;
+    protected List<DBFField> m_dictionaryFields = new ArrayList<DBFField>();
     protected long m_recno;
+    protected JobConf m_jobConf;
+    protected final int m_decodeThreads; // 0 to decode in the task thread
+    protected DBFParallelDecoder m_decoder;
+    protected DBFRecordIndex m_recordIndex;
+    protected boolean m_compressed; // Positions are those of the compressed stream
+    protected DBFMemoFile m_memoFile;
 
     public DBFRecordReader(final InputSplit inputSplit, final JobConf jobConf) throws IOException {
+        this(inputSplit, jobConf, Reporter.NULL);
+    }
+
+    public DBFRecordReader(final InputSplit inputSplit, final JobConf jobConf, final Reporter reporter) throws IOException {
+        m_reporter = reporter;
+        m_jobConf = jobConf;
+        m_decodeThreads = DBFInputFormat.getDecodeThreads(jobConf);
         if (inputSplit instanceof DBFFileSplit) {
             final DBFFileSplit dbfFileSplit = (DBFFileSplit) inputSplit;
             start = dbfFileSplit.getStart();
             end = start + dbfFileSplit.getLength();
 
-            dbfHeader = dbfFileSplit.getHeader();
+            dbfHeader = dbfFileSplit.getHeader(jobConf);
+
+            // Check the projection and the filter before opening the file
+            configureFields(dbfHeader, jobConf, m_dictionaryFields);
+
+            m_fieldIndexes = resolveFieldIndexes(dbfHeader, DBFInputFormat.getProjectedFields(jobConf));
+            m_keys = new ArrayList<Text>(m_fieldIndexes.length);
+            for (final int index : m_fieldIndexes) {
+                m_keys.add(new Text(dbfHeader.getField(index).fieldName));
+            }
 
-            m_recno = (start - dbfHeader.getHeadLength()) / dbfHeader.getRecordLength();
+            final String filter = jobConf.get(DBFInputFormat.FILTER);
+            if (filter != null && filter.trim().length() > 0) {
+                m_filter = DBFFilter.compile(filter, dbfHeader);
+            }
 
+            final long headLength = dbfHeader.getHeadLength();
+            final long recordLength = dbfHeader.getRecordLength();
             final Path path = dbfFileSplit.getPath();
             m_dbfStream = path.getFileSystem(jobConf).open(path);
-            m_dbfStream.seek(start);
+            boolean opened = false;
+            try {
+                final CompressionCodec codec = DBFInputFormat.getCodec(jobConf, path);
+                final long firstRecno;
+                final long endRecno;
+                final DataInputStream in;
+                if (codec != null) {
+                    // The split of a compressed file holds all its records
+                    firstRecno = 0;
+                    endRecno = dbfHeader.numberOfRecords & 0xFFFFFFFFL;
+                    in = new DataInputStream(codec.createInputStream(m_dbfStream));
+                    IOUtils.skipFully(in, headLength);
+                    m_compressed = true;
+                }
+                else {
+                    // The split owns the records starting in [start, end)
+                    firstRecno = Math.max(0, (start - headLength + recordLength - 1) / recordLength);
+                    endRecno = Math.max(firstRecno, (end - headLength + recordLength - 1) / recordLength);
+                    m_dbfStream.seek(headLength + firstRecno * recordLength);
+                    in = m_dbfStream;
+                }
+                m_recno = firstRecno;
 
-            m_dbfReader = new DBFReader(m_dbfStream, dbfHeader);
+                final int readAheadBuffers = DBFInputFormat.getReadAheadBuffers(jobConf);
+                if (readAheadBuffers > 0) {
+                    m_readAhead = new DBFReadAheadInputStream(in, (endRecno - firstRecno) * recordLength, readAheadBuffers, DBFInputFormat.getReadAheadBufferSize(jobConf), dbfHeader.recordLength, dbfFileSplit.toString());
+                    m_dbfReader = new DBFReader(new DataInputStream(m_readAhead), dbfHeader, firstRecno, endRecno);
+                }
+                else {
+                    m_dbfReader = new DBFReader(in, dbfHeader, firstRecno, endRecno);
+                }
 
-            final List<DBFField> fields = m_dbfReader.getFields();
-            m_keys = new ArrayList<Text>(fields.size());
-            for (final DBFField field : fields) {
-                m_keys.add(new Text(field.fieldName));
+                if (DBFInputFormat.useRecordIndex(jobConf)) {
+                    final FileSystem fs = path.getFileSystem(jobConf);
+                    m_recordIndex = DBFRecordIndex.open(fs, fs.getFileStatus(path));
+                    if (m_recordIndex != null) {
+                        m_recordIndex.loadBitmap(fs, path, firstRecno, endRecno);
+                    }
+                }
+
+                openMemoFile(path);
+                opened = true;
+            }
+            finally {
+                if (!opened) {
+                    // Stop the read ahead thread and release the file
+                    IOUtils.cleanup(DBFInputFormat.LOG, m_readAhead, m_dbfStream);
+                    m_readAhead = null;
+                    m_dbfStream = null;
+                }
             }
 
             this.pos = start;
@@ -67,6 +146,55 @@ public class DBFRecordReader implements RecordReader<LongWritable, MapWritable>
         }
     }
 
+    /**
+     * Apply the date, charset and dictionary settings of the job to the
+     * fields of the header, adding the fields given a dictionary to the list.
+     */
+    static void configureFields(final DBFHeader header, final JobConf jobConf, final List<DBFField> dictionaryFields) throws IOException {
+        final boolean dateAsEpochDays = jobConf.getBoolean(DBFInputFormat.DATE_AS_EPOCH_DAYS, false);
+        for (final DBFField field : header.fields) {
+            field.dateAsEpochDays = dateAsEpochDays;
+            field.dictionary = null;
+        }
+        header.setCharset(DBFInputFormat.getCharset(jobConf, header));
+
+        final String[] dictionaryFieldNames = DBFInputFormat.getDictionaryFields(jobConf);
+        if (dictionaryFieldNames != null) {
+            final int dictionarySize = DBFInputFormat.getDictionarySize(jobConf);
+            for (final String fieldName : dictionaryFieldNames) {
+                final int index = header.getFieldIndex(fieldName);
+                if (index < 0 || header.getField(index).dataType != 'C') {
+                    throw new IOException("Dictionary field " + fieldName + " is not a C field of " + header.fields);
+                }
+                final DBFField field = header.getField(index);
+                field.dictionary = new DBFDictionary(field.fieldLength, dictionarySize);
+                dictionaryFields.add(field);
+            }
+        }
+    }
+
+    /**
+     * Resolve the indexes of the projected fields, or of all the fields if
+     * no projection is configured.
+     */
+    protected static int[] resolveFieldIndexes(final DBFHeader header, final String[] fieldNames) throws IOException {
+        if (fieldNames == null) {
+            final int[] indexes = new int[header.numberOfFields];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = i;
+            }
+            return indexes;
+        }
+        final int[] indexes = new int[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            indexes[i] = header.getFieldIndex(fieldNames[i]);
+            if (indexes[i] < 0) {
+                throw new IOException("Projected field " + fieldNames[i] + " does not exist in " + header.fields);
+            }
+        }
+        return indexes;
+    }
+
     @Override
     public LongWritable createKey() {
         return m_key;
@@ -94,28 +222,163 @@ public class DBFRecordReader implements RecordReader<LongWritable, MapWritable>
 
     @Override
     public boolean next(final LongWritable key, final MapWritable value) throws IOException {
+        if (m_decodeThreads > 0) {
+            return nextDecoded(key, value);
+        }
+
+        if (!nextRecord(key)) {
+            return false;
+        }
+
+        for (int i = 0; i < m_fieldIndexes.length; i++) {
+            value.put(m_keys.get(i), m_dbfReader.readFieldWritable(m_fieldIndexes[i]));
+        }
+        return true;
+    }
+
+    /**
+     * Move to the next record decoded by the pool of threads.
+     */
+    private boolean nextDecoded(final LongWritable key, final MapWritable value) throws IOException {
+        if (m_decoder == null) {
+            m_decoder = new DBFParallelDecoder(m_dbfReader, m_jobConf, m_fieldIndexes, m_decodeThreads, DBFInputFormat.getDecodeBlockRecords(m_jobConf), m_dictionaryFields);
+        }
+        if (!m_decoder.next()) {
+            pos = end;
+            return false;
+        }
+        m_recno = m_decoder.getRecordNumber();
+        pos = getPos(m_recno + 1);
+        key.set(m_recno);
+        for (int i = 0; i < m_fieldIndexes.length; i++) {
+            value.put(m_keys.get(i), m_decoder.getValue(i));
+        }
+        return true;
+    }
 
-        while (pos <= end && m_dbfReader.nextDataType() != DBFType.END) {
-            key.set(m_recno++);
+    /**
+     * Move to the next record of the split accepted by the filter, leaving
+     * its raw bytes in getRecordBuffer() and its record number in the key.
+     * With a record index, runs of deleted records are skipped at once.
+     */
+    boolean nextRecord(final LongWritable key) throws IOException {
+
+        while (true) {
+            if (m_recordIndex != null && m_recordIndex.isDeleted(m_dbfReader.getNextRecordNumber())) {
+                m_dbfReader.skipTo(m_recordIndex.nextLive(m_dbfReader.getNextRecordNumber()));
+            }
+            if (m_dbfReader.nextDataType() == DBFType.END) {
+                break;
+            }
+            m_recno = m_dbfReader.getRecordNumber();
+            pos = getPos(m_dbfReader.getNextRecordNumber());
 
-            final int numFields = m_dbfReader.getNumberOfFields();
-            for (int i = 0; i < numFields; i++) {
-                value.put(m_keys.get(i), m_dbfReader.readFieldWritable(i));
+            if (m_filter != null && !m_filter.accept(m_dbfReader.getRecordBuffer())) {
+                continue;
             }
 
-            pos += dbfHeader.getRecordLength();
+            key.set(m_recno);
 
             return true;
         }
+        pos = end;
         return false;
 
     }
 
+    /**
+     * Open the memo file when M fields are projected, its values being read
+     * only when asked for.
+     */
+    private void openMemoFile(final Path path) throws IOException {
+        boolean memo = false;
+        for (final int index : m_fieldIndexes) {
+            memo |= dbfHeader.getField(index).dataType == 'M';
+        }
+        if (memo) {
+            m_memoFile = DBFMemoFile.open(path.getFileSystem(m_jobConf), path, DBFInputFormat.getMemoCacheSize(m_jobConf));
+            if (m_memoFile == null) {
+                DBFInputFormat.LOG.warn("No memo file for the M fields of " + path);
+            }
+        }
+        for (final DBFField field : dbfHeader.fields) {
+            field.memoFile = field.dataType == 'M' ? m_memoFile : null;
+        }
+    }
+
+    /**
+     * Return the position of a record in the file, or the position reached
+     * in the compressed stream.
+     */
+    private long getPos(final long recno) throws IOException {
+        if (m_compressed) {
+            return Math.min(end, m_dbfStream.getPos());
+        }
+        return dbfHeader.getHeadLength() + recno * dbfHeader.getRecordLength();
+    }
+
+    byte[] getRecordBuffer() {
+        return m_dbfReader.getRecordBuffer();
+    }
+
+    DBFHeader getHeader() {
+        return dbfHeader;
+    }
+
+    int[] getFieldIndexes() {
+        return m_fieldIndexes;
+    }
+
+    DBFReader getReader() {
+        return m_dbfReader;
+    }
+
+    DBFFilter getFilter() {
+        return m_filter;
+    }
+
+    /**
+     * Close the decoding threads, the read ahead stream, the file and the
+     * memo file, each one even if closing the previous ones failed.
+     */
     @Override
     public void close() throws IOException {
-        if (m_dbfStream != null) {
-            m_dbfStream.close();
-            m_dbfStream = null;
+        try {
+            if (m_decoder != null) {
+                final DBFParallelDecoder decoder = m_decoder;
+                m_decoder = null;
+                decoder.close();
+            }
+            for (final DBFField field : m_dictionaryFields) {
+                field.dictionary.report(m_reporter, field.fieldName);
+            }
+            m_dictionaryFields.clear();
+        }
+        finally {
+            try {
+                if (m_readAhead != null) {
+                    final DBFReadAheadInputStream readAhead = m_readAhead;
+                    m_readAhead = null;
+                    readAhead.close();
+                }
+            }
+            finally {
+                try {
+                    if (m_dbfStream != null) {
+                        final FSDataInputStream dbfStream = m_dbfStream;
+                        m_dbfStream = null;
+                        dbfStream.close();
+                    }
+                }
+                finally {
+                    if (m_memoFile != null) {
+                        final DBFMemoFile memoFile = m_memoFile;
+                        m_memoFile = null;
+                        memoFile.report(m_reporter);
+                        memoFile.close();
+                    }
+                }
+            }
         }
     }
 }
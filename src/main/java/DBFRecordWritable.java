@@ -0,0 +1,299 @@
+/**
+ * @file	DBFRecordWritable.java
+ */
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * DBFRecordWritable holds the values of one DBF record in positional,
+ * primitive typed slots, one slot per field read. <BR><BR>
+ *
+ * C fields are held as Text, D fields as long UTC milliseconds or int epoch
+ * days, F fields and N fields with decimals as double, N fields shorter than
+ * 8 digits as int, longer ones as long, L fields as boolean, and M fields
+ * as the Text read from the memo file. Other field types, blank or invalid
+ * dates, and empty memos or memos without a memo file are null.
+ * <BR><BR>
+ *
+ * Mapper code should resolve the slot of each field once with
+ * getIndex(fieldName), then read values with the typed getters. <BR><BR>
+ *
+ * Only the slot types and values are serialized. A deserialized record
+ * keeps the field names of its previous schema if it has the same number of
+ * slots, otherwise getIndex() is not available until setSchema() is called.
+ */
+public class DBFRecordWritable implements Writable {
+    public static final byte NULL = 0;
+    public static final byte INT = 1;
+    public static final byte LONG = 2;
+    public static final byte DOUBLE = 3;
+    public static final byte BOOLEAN = 4;
+    public static final byte TEXT = 5;
+
+    private DBFField[] m_fields; // Fields decoded into each slot, null once deserialized
+    private byte[] m_fieldTypes; // Slot types of the bound fields, m_types may be NULL for a record
+    private String[] m_names;
+    private Map<String, Integer> m_indexes;
+    private byte[] m_types = new byte[0];
+    private long[] m_longs = new long[0]; // INT, LONG and BOOLEAN slots
+    private double[] m_doubles = new double[0];
+    private Text[] m_texts = new Text[0];
+
+    public DBFRecordWritable() {
+    }
+
+    public DBFRecordWritable(final DBFHeader header, final int[] fieldIndexes) {
+        setSchema(header, fieldIndexes);
+    }
+
+    /**
+     * Bind the slots of this record to the given fields of the header, slot
+     * i holding field fieldIndexes[i].
+     */
+    public void setSchema(final DBFHeader header, final int[] fieldIndexes) {
+        final int n = fieldIndexes.length;
+        m_fields = new DBFField[n];
+        m_fieldTypes = new byte[n];
+        m_names = new String[n];
+        m_indexes = new HashMap<String, Integer>(n * 2);
+        resize(n);
+        for (int i = 0; i < n; i++) {
+            final DBFField field = header.getField(fieldIndexes[i]);
+            m_fields[i] = field;
+            m_names[i] = field.fieldName;
+            m_indexes.put(field.fieldName.toUpperCase(), i);
+            m_fieldTypes[i] = typeOf(field);
+            m_types[i] = m_fieldTypes[i];
+            if (m_types[i] == TEXT) {
+                m_texts[i] = new Text();
+            }
+        }
+    }
+
+    static byte typeOf(final DBFField field) {
+        switch (field.dataType) {
+            case 'C':
+                return TEXT;
+            case 'D':
+                return field.dateAsEpochDays ? INT : LONG;
+            case 'F':
+                return DOUBLE;
+            case 'L':
+                return BOOLEAN;
+            case 'M':
+                return TEXT;
+            case 'N':
+                if (field.decimalCount != 0) {
+                    return DOUBLE;
+                }
+                return field.fieldLength < 8 ? INT : LONG;
+            default:
+                return NULL;
+        }
+    }
+
+    private void resize(final int n) {
+        if (m_types.length != n) {
+            m_types = new byte[n];
+            m_longs = new long[n];
+            m_doubles = new double[n];
+            m_texts = new Text[n];
+        }
+    }
+
+    /**
+     * Decode the bound fields from a record buffer as returned by
+     * DBFReader.getRecordBuffer().
+     */
+    void decode(final byte[] record) throws IOException {
+        final DBFField[] fields = m_fields;
+        for (int i = 0; i < fields.length; i++) {
+            final DBFField field = fields[i];
+            m_types[i] = m_fieldTypes[i];
+            if (field.dataType == 'D') {
+                final int epochDay = field.readEpochDay(record, field.offset);
+                if (epochDay == DBFField.INVALID_DATE) {
+                    m_types[i] = NULL;
+                }
+                else {
+                    m_longs[i] = field.dateAsEpochDays ? epochDay : epochDay * DBFField.MILLIS_PER_DAY;
+                }
+                continue;
+            }
+            if (field.dataType == 'M') {
+                if (!field.readMemo(record, field.offset, m_texts[i])) {
+                    m_types[i] = NULL;
+                }
+                continue;
+            }
+            switch (m_types[i]) {
+                case TEXT:
+                    field.readText(record, field.offset, m_texts[i]);
+                    break;
+                case INT:
+                    m_longs[i] = field.readInteger(record, field.offset);
+                    break;
+                case LONG:
+                    m_longs[i] = field.readLong(record, field.offset);
+                    break;
+                case DOUBLE:
+                    m_doubles[i] = field.readDouble(record, field.offset);
+                    break;
+                case BOOLEAN:
+                    m_longs[i] = field.readLogical(record, field.offset) ? 1L : 0L;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Return the slot of the named field, ignoring case, or -1.
+     */
+    public int getIndex(final String fieldName) {
+        if (m_indexes == null) {
+            throw new IllegalStateException("No schema is bound to this record");
+        }
+        final Integer index = m_indexes.get(fieldName.toUpperCase());
+        return index == null ? -1 : index;
+    }
+
+    public int size() {
+        return m_types.length;
+    }
+
+    public String getName(final int i) {
+        return m_names == null ? null : m_names[i];
+    }
+
+    public byte getType(final int i) {
+        return m_types[i];
+    }
+
+    public boolean isNull(final int i) {
+        return m_types[i] == NULL;
+    }
+
+    public int getInt(final int i) {
+        return (int) m_longs[i];
+    }
+
+    public long getLong(final int i) {
+        return m_longs[i];
+    }
+
+    public double getDouble(final int i) {
+        return m_doubles[i];
+    }
+
+    public boolean getBoolean(final int i) {
+        return m_longs[i] != 0L;
+    }
+
+    public Text getText(final int i) {
+        return m_texts[i];
+    }
+
+    /**
+     * Return the value of a slot boxed, for generic code paths only.
+     */
+    public Object get(final int i) {
+        switch (m_types[i]) {
+            case INT:
+                return getInt(i);
+            case LONG:
+                return getLong(i);
+            case DOUBLE:
+                return getDouble(i);
+            case BOOLEAN:
+                return getBoolean(i);
+            case TEXT:
+                return getText(i).toString();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        final int n = m_types.length;
+        WritableUtils.writeVInt(out, n);
+        out.write(m_types);
+        for (int i = 0; i < n; i++) {
+            switch (m_types[i]) {
+                case INT:
+                case LONG:
+                    WritableUtils.writeVLong(out, m_longs[i]);
+                    break;
+                case DOUBLE:
+                    out.writeDouble(m_doubles[i]);
+                    break;
+                case BOOLEAN:
+                    out.writeBoolean(m_longs[i] != 0L);
+                    break;
+                case TEXT:
+                    m_texts[i].write(out);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        final int n = WritableUtils.readVInt(in);
+        if (n != m_types.length) {
+            m_names = null;
+            m_indexes = null;
+        }
+        m_fields = null;
+        m_fieldTypes = null;
+        resize(n);
+        in.readFully(m_types);
+        for (int i = 0; i < n; i++) {
+            switch (m_types[i]) {
+                case INT:
+                case LONG:
+                    m_longs[i] = WritableUtils.readVLong(in);
+                    break;
+                case DOUBLE:
+                    m_doubles[i] = in.readDouble();
+                    break;
+                case BOOLEAN:
+                    m_longs[i] = in.readBoolean() ? 1L : 0L;
+                    break;
+                case TEXT:
+                    if (m_texts[i] == null) {
+                        m_texts[i] = new Text();
+                    }
+                    m_texts[i].readFields(in);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < m_types.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(m_names == null ? String.valueOf(i) : m_names[i]).append('=').append(get(i));
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * @file	DBFRecordWritableReader.java
+ */
+
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * DBFRecordWritableReader reads the records of a DBFFileSplit into a
+ * DBFRecordWritable. Positioning, projection and filtering are those of
+ * DBFRecordReader, but records are always decoded in the task thread,
+ * DBFInputFormat.DECODE_THREADS being ignored.
+ *
+ * @see    DBFRecordReader
+ */
+public class DBFRecordWritableReader implements RecordReader<LongWritable, DBFRecordWritable> {
+    private final DBFRecordReader m_reader;
+
+    public DBFRecordWritableReader(final InputSplit inputSplit, final JobConf jobConf, final Reporter reporter) throws IOException {
+        m_reader = new DBFRecordReader(inputSplit, jobConf, reporter);
+    }
+
+    @Override
+    public LongWritable createKey() {
+        return m_reader.createKey();
+    }
+
+    @Override
+    public DBFRecordWritable createValue() {
+        return new DBFRecordWritable(m_reader.getHeader(), m_reader.getFieldIndexes());
+    }
+
+    @Override
+    public long getPos() throws IOException {
+        return m_reader.getPos();
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+        return m_reader.getProgress();
+    }
+
+    @Override
+    public boolean next(final LongWritable key, final DBFRecordWritable value) throws IOException {
+        if (!m_reader.nextRecord(key)) {
+            return false;
+        }
+        value.decode(m_reader.getRecordBuffer());
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_reader.close();
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * @file	DBFRecordWriter.java
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.RecordWriter;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * DBFRecordWriter writes records into a DBF file with a given header. Each
+ * record is encoded into a reused buffer by the fields of the header. <BR><BR>
+ *
+ * The number of records is only known on close, while output streams of
+ * HDFS cannot be rewritten. The records are therefore spooled to a local
+ * temporary file, and copied to the output after the header on close.
+ *
+ * @see    DBFOutputFormat
+ */
+public class DBFRecordWriter implements RecordWriter<Writable, MapWritable> {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream m_out;
+    private final DBFHeader m_header;
+    private final Text[] m_keys;
+    private final byte[] m_record;
+    private final File m_spoolFile;
+    private OutputStream m_spool;
+    private long m_count;
+
+    public DBFRecordWriter(final OutputStream out, final DBFHeader header) throws IOException {
+        m_out = out;
+        m_header = header;
+        m_keys = new Text[header.numberOfFields];
+        for (int i = 0; i < m_keys.length; i++) {
+            m_keys[i] = new Text(header.getField(i).fieldName);
+        }
+        m_record = new byte[header.recordLength];
+        m_spoolFile = File.createTempFile("dbf", ".records");
+        m_spool = new BufferedOutputStream(new FileOutputStream(m_spoolFile), BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(final Writable key, final MapWritable value) throws IOException {
+        m_record[0] = ' ';
+        for (int i = 0; i < m_keys.length; i++) {
+            final DBFField field = m_header.getField(i);
+            field.writeWritable(value.get(m_keys[i]), m_record, field.offset);
+        }
+        writeRecord(m_record);
+    }
+
+    /**
+     * Write a record already encoded, its deleted flag included.
+     */
+    public void writeRecord(final byte[] record) throws IOException {
+        if (m_count == 0xFFFFFFFFL) {
+            throw new IOException("A DBF file cannot hold more than " + m_count + " records");
+        }
+        m_spool.write(record, 0, m_header.recordLength);
+        m_count++;
+    }
+
+    public long getRecordCount() {
+        return m_count;
+    }
+
+    @Override
+    public void close(final Reporter reporter) throws IOException {
+        boolean closed = false;
+        try {
+            m_spool.close();
+            m_spool = null;
+            m_header.numberOfRecords = (int) m_count;
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(m_out, BUFFER_SIZE));
+            m_header.writeTo(out);
+            final InputStream in = new FileInputStream(m_spoolFile);
+            try {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                    if (reporter != null) {
+                        reporter.progress();
+                    }
+                }
+            }
+            finally {
+                in.close();
+            }
+            out.writeByte(DBFType.END);
+            out.close();
+            closed = true;
+        }
+        finally {
+            if (!closed) {
+                IOUtils.closeStream(m_out);
+            }
+            if (m_spool != null) {
+                IOUtils.closeStream(m_spool);
+            }
+            m_spoolFile.delete();
+        }
+    }
+}
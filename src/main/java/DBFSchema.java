@@ -8,9 +8,15 @@
 
 import java.io.IOException;
 
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
@@ -18,11 +24,13 @@ import org.apache.hadoop.mapred.RecordReader;
 import org.apache.hadoop.mapred.TextOutputFormat;
 
 import cascading.flow.FlowProcess;
+import cascading.scheme.SinkCall;
 import cascading.scheme.SourceCall;
 import cascading.scheme.hadoop.TextLine;
 import cascading.tap.Tap;
 import cascading.tuple.Fields;
 import cascading.tuple.Tuple;
+import cascading.tuple.TupleEntry;
 
 /**
  * @author FanRong
@@ -55,7 +63,47 @@ public class DBFSchema extends TextLine {
 
         conf.setOutputKeyClass(Text.class);
         conf.setOutputValueClass(MapWritable.class); // be explicit
-        conf.setOutputFormat(TextOutputFormat.class);
+        if (conf.get(DBFOutputFormat.FIELDS) != null)
+            conf.setOutputFormat(DBFOutputFormat.class);
+        else
+            conf.setOutputFormat(TextOutputFormat.class);
+    }
+
+    @Override
+    public void sink(FlowProcess<JobConf> flowProcess, SinkCall<Object[], OutputCollector> sinkCall) throws IOException {
+        if (flowProcess.getProperty(DBFOutputFormat.FIELDS) == null) {
+            super.sink(flowProcess, sinkCall);
+            return;
+        }
+
+        // DBFOutputFormat takes the values of the fields by name
+        final TupleEntry entry = sinkCall.getOutgoingEntry();
+        final Fields fields = entry.getFields();
+        final MapWritable value = new MapWritable();
+        for (int i = 0; i < fields.size(); i++) {
+            value.put(new Text(fields.get(i).toString()), toWritable(entry.getTuple().getObject(i)));
+        }
+        sinkCall.getOutput().collect(null, value);
+    }
+
+    private static Writable toWritable(Object object) {
+        if (object == null)
+            return NullWritable.get();
+        if (object instanceof Writable)
+            return (Writable) object;
+        if (object instanceof Integer || object instanceof Short || object instanceof Byte)
+            return new IntWritable(((Number) object).intValue());
+        if (object instanceof Long)
+            return new LongWritable((Long) object);
+        if (object instanceof Float)
+            return new FloatWritable((Float) object);
+        if (object instanceof Double)
+            return new DoubleWritable((Double) object);
+        if (object instanceof Boolean)
+            return new BooleanWritable((Boolean) object);
+        if (object instanceof java.util.Date)
+            return new LongWritable(((java.util.Date) object).getTime());
+        return new Text(object.toString());
     }
 
     @Override
@@ -0,0 +1,296 @@
+/**
+ * @file	DBFThroughputBenchmark.java
+ */
+
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.lib.NullOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * DBFThroughputBenchmark runs DBF files of DBFDataGenerator through
+ * DBFInputFormat and DBFRecordReader in map only jobs of a counting mapper,
+ * on the local job runner unless the configuration says otherwise. <BR><BR>
+ *
+ * hadoop jar [jar] DBFThroughputBenchmark [-scale factor] [-dir path]
+ *     [-regenerate] [scenario...]<BR><BR>
+ *
+ * Each scenario, by default all of them, is a dataset of narrow or wide
+ * records in few or many, small or large files, generated under dir, by
+ * default hadoop.tmp.dir/dbf-throughput, when it is missing or -regenerate
+ * is given. The number of records is multiplied by the scale. Options of
+ * DBFInputFormat are given by -D. <BR><BR>
+ *
+ * The report gives for each scenario the time of DBFInputFormat.getSplits(),
+ * the throughput in records and MB per second over the time of the job and
+ * over the summed time of its tasks, the time of the JVM collectors and the
+ * sum of the peak usages of the heap pools during the job, followed by the
+ * throughput and collector time of each map task. Tasks are only reported
+ * when they run in this JVM, as they do on the local job runner, whose
+ * overhead between tasks weighs on the job throughput of many small files.
+ *
+ * @see    DBFDataGenerator
+ * @see    DBFMicroBenchmark
+ */
+public class DBFThroughputBenchmark extends Configured implements Tool {
+    public static final String COUNTER_GROUP = "DBF Throughput";
+
+    // Name, fields, files and records per file of the scenarios
+    private static final Object[][] SCENARIOS = {
+            { "narrow-few-small", 8, 2, 20000 },
+            { "narrow-few-large", 8, 2, 500000 },
+            { "narrow-many-small", 8, 64, 2000 },
+            { "wide-few-small", 128, 2, 2000 },
+            { "wide-few-large", 128, 2, 50000 },
+            { "wide-many-small", 128, 64, 200 } };
+
+    // Statistics of the tasks run in this JVM
+    private static final List<TaskStatistics> s_tasks = new ArrayList<TaskStatistics>();
+
+    /**
+     * Records, bytes, time and collector time of a map task.
+     */
+    static class TaskStatistics {
+        final String m_taskId;
+        final long m_records;
+        final long m_bytes;
+        final long m_nanos;
+        final long m_gcMillis;
+
+        TaskStatistics(final String taskId, final long records, final long bytes, final long nanos, final long gcMillis) {
+            m_taskId = taskId;
+            m_records = records;
+            m_bytes = bytes;
+            m_nanos = nanos;
+            m_gcMillis = gcMillis;
+        }
+
+        @Override
+        public String toString() {
+            final double seconds = Math.max(1, m_nanos) / 1e9;
+            return String.format("  %-36s %10d %9.1f %9.0f %12.0f %9.1f %7d", m_taskId, m_records, m_bytes / 1e6, seconds * 1000, m_records / seconds,
+                    m_bytes / 1e6 / seconds, m_gcMillis);
+        }
+    }
+
+    /**
+     * Count the records and the values of its split, reading each value as
+     * DBFSchema does when it hands the record over.
+     */
+    public static class CountMapper extends MapReduceBase implements Mapper<LongWritable, MapWritable, NullWritable, NullWritable> {
+        private String m_taskId;
+        private Reporter m_reporter;
+        private long m_start;
+        private long m_gcStart;
+        private long m_records;
+        private long m_values;
+
+        @Override
+        public void configure(final JobConf job) {
+            m_taskId = job.get("mapred.task.id", "task");
+            m_start = System.nanoTime();
+            m_gcStart = getCollectionMillis();
+        }
+
+        @Override
+        public void map(final LongWritable key, final MapWritable value, final OutputCollector<NullWritable, NullWritable> output, final Reporter reporter) throws IOException {
+            m_reporter = reporter;
+            m_records++;
+            for (final Writable field : value.values()) {
+                if (field != null) {
+                    m_values++;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (m_reporter == null) {
+                return; // Empty split
+            }
+            final long bytes = m_reporter.getInputSplit().getLength();
+            m_reporter.incrCounter(COUNTER_GROUP, "records", m_records);
+            m_reporter.incrCounter(COUNTER_GROUP, "values", m_values);
+            m_reporter.incrCounter(COUNTER_GROUP, "bytes", bytes);
+            synchronized (s_tasks) {
+                s_tasks.add(new TaskStatistics(m_taskId, m_records, bytes, System.nanoTime() - m_start, getCollectionMillis() - m_gcStart));
+            }
+        }
+    }
+
+    /**
+     * Return the time spent by the collectors of the JVM so far.
+     */
+    static long getCollectionMillis() {
+        long millis = 0;
+        for (final GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * Return the sum of the peak usages of the heap pools since their reset.
+     */
+    static long getHeapPeak(final boolean reset) {
+        long peak = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                peak += pool.getPeakUsage().getUsed();
+                if (reset) {
+                    pool.resetPeakUsage();
+                }
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Generate the dataset of a scenario unless it exists, then plan its
+     * splits and run the counting job on it.
+     */
+    private boolean runScenario(final Object[] scenario, final Path dir, final double scale, final boolean regenerate) throws IOException {
+        final String name = (String) scenario[0];
+        final int fieldCount = (Integer) scenario[1];
+        final int fileCount = (Integer) scenario[2];
+        final long recordCount = Math.max(1, Math.round((Integer) scenario[3] * scale));
+        final Path input = new Path(dir, name + "-" + recordCount);
+        final FileSystem fs = input.getFileSystem(getConf());
+        if (regenerate || !fs.exists(input)) {
+            fs.delete(input, true);
+            final long start = System.currentTimeMillis();
+            new DBFDataGenerator(fieldCount, DBFDataGenerator.DEFAULT_TYPES, 0.05, DBFField.DEFAULT_CHARSET, 1).writeFiles(fs, input, fileCount, recordCount);
+            System.out.println("Generated " + input + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+
+        final JobConf job = new JobConf(getConf(), DBFThroughputBenchmark.class);
+        job.setJobName("DBF throughput of " + name);
+        FileInputFormat.setInputPaths(job, input);
+        job.setInputFormat(DBFInputFormat.class);
+        job.setMapperClass(CountMapper.class);
+        job.setNumReduceTasks(0);
+        job.setMapSpeculativeExecution(false);
+        job.setOutputFormat(NullOutputFormat.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(NullWritable.class);
+
+        final long planStart = System.nanoTime();
+        final InputSplit[] splits = new DBFInputFormat().getSplits(job, job.getNumMapTasks());
+        final double planMillis = (System.nanoTime() - planStart) / 1e6;
+
+        synchronized (s_tasks) {
+            s_tasks.clear();
+        }
+        System.gc();
+        getHeapPeak(true);
+        final long gcStart = getCollectionMillis();
+        final long jobStart = System.nanoTime();
+        final RunningJob result = JobClient.runJob(job);
+        final double seconds = (System.nanoTime() - jobStart) / 1e9;
+        final long gcMillis = getCollectionMillis() - gcStart;
+        final long heapPeak = getHeapPeak(false);
+
+        final Counters.Group counters = result.getCounters().getGroup(COUNTER_GROUP);
+        final long records = counters.getCounter("records");
+        final long bytes = counters.getCounter("bytes");
+        synchronized (s_tasks) {
+            // Rates over the time of the tasks, without the overhead of the
+            // job runner between them
+            long taskNanos = 0;
+            for (final TaskStatistics task : s_tasks) {
+                taskNanos += task.m_nanos;
+            }
+            final double taskSeconds = Math.max(1, taskNanos) / 1e9;
+            System.out.println(String.format("%-20s %6d %9.1f %7d %9.1f %9.1f %12.0f %9.1f %12.0f %9.1f %7d %10.1f", name, fileCount, bytes / 1e6,
+                    splits.length, planMillis, seconds * 1000, records / seconds, bytes / 1e6 / seconds, s_tasks.isEmpty() ? Double.NaN : records / taskSeconds,
+                    s_tasks.isEmpty() ? Double.NaN : bytes / 1e6 / taskSeconds, gcMillis, heapPeak / 1e6));
+            if (!s_tasks.isEmpty()) {
+                System.out.println(String.format("  %-36s %10s %9s %9s %12s %9s %7s", "Task", "records", "MB", "ms", "records/s", "MB/s", "gc ms"));
+            }
+            for (final TaskStatistics task : s_tasks) {
+                System.out.println(task);
+            }
+        }
+        return result.isSuccessful();
+    }
+
+    @Override
+    public int run(final String[] args) throws Exception {
+        double scale = 1;
+        Path dir = new Path(getConf().get("hadoop.tmp.dir", "/tmp"), "dbf-throughput");
+        boolean regenerate = false;
+        final List<Object[]> scenarios = new ArrayList<Object[]>();
+        for (int i = 0; i < args.length; i++) {
+            if ("-scale".equals(args[i]) && i + 1 < args.length) {
+                scale = Double.parseDouble(args[++i]);
+            }
+            else if ("-dir".equals(args[i]) && i + 1 < args.length) {
+                dir = new Path(args[++i]);
+            }
+            else if ("-regenerate".equals(args[i])) {
+                regenerate = true;
+            }
+            else {
+                Object[] found = null;
+                for (final Object[] scenario : SCENARIOS) {
+                    if (scenario[0].equals(args[i])) {
+                        found = scenario;
+                    }
+                }
+                if (found == null) {
+                    System.err.println("Usage: DBFThroughputBenchmark [-scale factor] [-dir path] [-regenerate] [scenario...]");
+                    System.err.print("Scenarios:");
+                    for (final Object[] scenario : SCENARIOS) {
+                        System.err.print(" " + scenario[0]);
+                    }
+                    System.err.println();
+                    ToolRunner.printGenericCommandUsage(System.err);
+                    return 2;
+                }
+                scenarios.add(found);
+            }
+        }
+        if (scenarios.isEmpty()) {
+            for (final Object[] scenario : SCENARIOS) {
+                scenarios.add(scenario);
+            }
+        }
+
+        boolean successful = true;
+        for (final Object[] scenario : scenarios) {
+            System.out.println(String.format("%-20s %6s %9s %7s %9s %9s %12s %9s %12s %9s %7s %10s", "Scenario", "files", "MB", "splits", "plan ms",
+                    "job ms", "records/s", "MB/s", "task rec/s", "task MB/s", "gc ms", "heap MB"));
+            successful &= runScenario(scenario, dir, scale, regenerate);
+        }
+        return successful ? 0 : 1;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        System.exit(ToolRunner.run(new DBFThroughputBenchmark(), args));
+    }
+}
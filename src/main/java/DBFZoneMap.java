@@ -0,0 +1,277 @@
+/**
+ * @file	DBFZoneMap.java
+ */
+
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * DBFZoneMap is a sidecar of a DBF file, named after it with a .dbfz
+ * extension and built by DBFIndexer, holding the DBFColumnStatistics of
+ * some of its fields over each block of blockRecords records. Deleted
+ * records are not counted. <BR><BR>
+ *
+ * The zone map starts with the magic bytes DBFZ, a version byte, the length
+ * and the modification time of the DBF file it was built from, the number
+ * of records, the number of records of a block and the fields, each one as
+ * its index and its name, followed by the number of blocks and by the
+ * statistics of the fields of each block. <BR><BR>
+ *
+ * DBFInputFormat drops the splits none of whose blocks may match the filter
+ * of the job.
+ *
+ * @see    DBFIndexer
+ * @see    DBFFilter#mayMatch(DBFColumnStatistics[])
+ */
+public class DBFZoneMap {
+    public static final String EXTENSION = ".dbfz";
+    public static final int DEFAULT_BLOCK_RECORDS = 4096;
+
+    static final byte[] MAGIC = { 'D', 'B', 'F', 'Z' };
+    static final byte VERSION = 1;
+    private static final int READ_RECORDS = 4096;
+
+    private final long m_recordCount;
+    private final int m_blockRecords;
+    private final int[] m_fieldIndexes;
+    private final String[] m_fieldNames;
+    // Statistics of each block, indexed by field index
+    private final DBFColumnStatistics[][] m_blocks;
+
+    private DBFZoneMap(final long recordCount, final int blockRecords, final int[] fieldIndexes, final String[] fieldNames, final DBFColumnStatistics[][] blocks) {
+        m_recordCount = recordCount;
+        m_blockRecords = blockRecords;
+        m_fieldIndexes = fieldIndexes;
+        m_fieldNames = fieldNames;
+        m_blocks = blocks;
+    }
+
+    /**
+     * Return the path of the zone map of a DBF file, its name with the .dbf
+     * extension replaced.
+     */
+    public static Path getZoneMapPath(final Path dbfPath) {
+        final String name = dbfPath.getName();
+        final String base = name.toLowerCase().endsWith(".dbf") ? name.substring(0, name.length() - 4) : name;
+        return new Path(dbfPath.getParent(), base + EXTENSION);
+    }
+
+    /**
+     * Scan the records of a DBF file and write the zone map of the fields,
+     * ignoring the fields the file does not have.
+     */
+    public static void build(final JobConf job, final FileStatus dbfFile, final String[] fieldNames, final int blockRecords, final Reporter reporter) throws IOException {
+        final Path path = dbfFile.getPath();
+        final FileSystem fs = path.getFileSystem(job);
+        final DBFHeader header = DBFInputFormat.readHeader(job, dbfFile);
+        if (header == null) {
+            throw new IOException("Cannot build the zone map of empty DBF file " + path);
+        }
+        final int block = Math.max(1, blockRecords);
+        final int[] fieldIndexes = getFieldIndexes(header, fieldNames);
+        final DBFField[] fields = new DBFField[fieldIndexes.length];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = header.getField(fieldIndexes[i]);
+        }
+
+        final List<DBFColumnStatistics[]> blocks = new ArrayList<DBFColumnStatistics[]>();
+        DBFColumnStatistics[] statistics = null;
+        long recordCount = 0;
+        final DataInputStream in = DBFInputFormat.openRecords(job, path, header);
+        try {
+            final DBFReader reader = new DBFReader(in, header);
+            final byte[] records = new byte[READ_RECORDS * header.recordLength];
+            int size;
+            while ((size = reader.readRecords(records, READ_RECORDS)) > 0) {
+                for (int row = 0, from = 0; row < size; row++, from += header.recordLength) {
+                    if (recordCount++ % block == 0) {
+                        statistics = new DBFColumnStatistics[fields.length];
+                        for (int i = 0; i < fields.length; i++) {
+                            statistics[i] = new DBFColumnStatistics(DBFColumnStatistics.kindOf(fields[i]));
+                        }
+                        blocks.add(statistics);
+                    }
+                    if (records[from] != DBFType.DELETED) {
+                        for (int i = 0; i < fields.length; i++) {
+                            statistics[i].add(fields[i], records, from + fields[i].offset);
+                        }
+                    }
+                }
+                reporter.progress();
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        final Path zoneMap = getZoneMapPath(path);
+        final Path tmp = new Path(zoneMap.getParent(), "_" + zoneMap.getName() + ".tmp");
+        final DataOutputStream out = fs.create(tmp, true);
+        try {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(dbfFile.getLen());
+            out.writeLong(dbfFile.getModificationTime());
+            out.writeLong(recordCount);
+            out.writeInt(block);
+            WritableUtils.writeVInt(out, fields.length);
+            for (int i = 0; i < fields.length; i++) {
+                WritableUtils.writeVInt(out, fieldIndexes[i]);
+                out.writeUTF(fields[i].fieldName);
+            }
+            out.writeInt(blocks.size());
+            for (final DBFColumnStatistics[] blockStatistics : blocks) {
+                for (final DBFColumnStatistics fieldStatistics : blockStatistics) {
+                    fieldStatistics.write(out);
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+        if (fs.exists(zoneMap)) {
+            fs.delete(zoneMap, false);
+        }
+        if (!fs.rename(tmp, zoneMap)) {
+            throw new IOException("Cannot rename " + tmp + " to " + zoneMap);
+        }
+    }
+
+    /**
+     * Return the indexes of the fields the header has, in the order of the
+     * names.
+     */
+    static int[] getFieldIndexes(final DBFHeader header, final String[] fieldNames) {
+        final List<Integer> indexes = new ArrayList<Integer>(fieldNames.length);
+        for (final String fieldName : fieldNames) {
+            final int index = header.getFieldIndex(fieldName);
+            if (index >= 0 && !indexes.contains(index)) {
+                indexes.add(index);
+            }
+        }
+        final int[] result = new int[indexes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = indexes.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Read the zone map of a DBF file, or return null if it does not exist
+     * or was built from another version of the file.
+     */
+    public static DBFZoneMap open(final FileSystem fs, final FileStatus dbfFile) throws IOException {
+        final Path path = getZoneMapPath(dbfFile.getPath());
+        if (!fs.exists(path)) {
+            return null;
+        }
+        final FSDataInputStream in = fs.open(path);
+        try {
+            final byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a DBF zone map: " + path);
+            }
+            final byte version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of DBF zone map " + path);
+            }
+            final long sourceLength = in.readLong();
+            final long sourceModificationTime = in.readLong();
+            if (sourceLength != dbfFile.getLen() || sourceModificationTime != dbfFile.getModificationTime()) {
+                return null;
+            }
+            final long recordCount = in.readLong();
+            final int blockRecords = in.readInt();
+            final int[] fieldIndexes = new int[WritableUtils.readVInt(in)];
+            final String[] fieldNames = new String[fieldIndexes.length];
+            int width = 0;
+            for (int i = 0; i < fieldIndexes.length; i++) {
+                fieldIndexes[i] = WritableUtils.readVInt(in);
+                fieldNames[i] = in.readUTF();
+                width = Math.max(width, fieldIndexes[i] + 1);
+            }
+            final DBFColumnStatistics[][] blocks = new DBFColumnStatistics[in.readInt()][];
+            for (int b = 0; b < blocks.length; b++) {
+                blocks[b] = new DBFColumnStatistics[width];
+                for (final int index : fieldIndexes) {
+                    blocks[b][index] = new DBFColumnStatistics();
+                    blocks[b][index].readFields(in);
+                }
+            }
+            return new DBFZoneMap(recordCount, blockRecords, fieldIndexes, fieldNames, blocks);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Return false if no record in [firstRecno, endRecno) can be accepted
+     * by the filter, which must be compiled against the header of the file.
+     * The file has no record after the last block.
+     */
+    public boolean mayMatch(final DBFFilter filter, final long firstRecno, final long endRecno) {
+        for (long b = firstRecno / m_blockRecords; b < m_blocks.length && b * m_blockRecords < endRecno; b++) {
+            if (filter.mayMatch(m_blocks[(int) b])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return true if the zone map has all the fields of the indexes.
+     */
+    public boolean hasFields(final int[] fieldIndexes) {
+        for (final int index : fieldIndexes) {
+            boolean found = false;
+            for (final int fieldIndex : m_fieldIndexes) {
+                found |= fieldIndex == index;
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getRecordCount() {
+        return m_recordCount;
+    }
+
+    public int getBlockRecords() {
+        return m_blockRecords;
+    }
+
+    public int getBlockCount() {
+        return m_blocks.length;
+    }
+
+    /**
+     * Return the statistics of a block, indexed by field index, null for
+     * the fields not in the zone map.
+     */
+    public DBFColumnStatistics[] getStatistics(final int block) {
+        return m_blocks[block];
+    }
+
+    @Override
+    public String toString() {
+        return "DBFZoneMap{records=" + m_recordCount + ", blockRecords=" + m_blockRecords + ", fields=" + Arrays.toString(m_fieldNames) + ", indexes="
+                + Arrays.toString(m_fieldIndexes) + "}";
+    }
+}